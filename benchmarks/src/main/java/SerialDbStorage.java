@@ -0,0 +1,85 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import serialdb.bench.Storage;
+
+public class SerialDbStorage implements Storage {
+
+    private LogStorageEngine logEngine;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Object> openStore(String engine, String tableName, boolean deferredWrites) {
+        switch (engine) {
+            case "derby":
+                return (List<Object>) (List<?>) new ObjectStore<Serializable>(tableName, deferredWrites);
+            case "log":
+                TableManager tableManager = new TableManager(tableName, Codecs.JAVA, logEngine());
+                return (List<Object>) (List<?>) new ObjectStore<Serializable>(tableManager, deferredWrites);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    // Next to the Derby database in the temporary directory
+    private synchronized LogStorageEngine logEngine() {
+        if (logEngine == null) {
+            logEngine = new LogStorageEngine(new File(System.getProperty("derby.system.home"), "log").getPath());
+        }
+        return logEngine;
+    }
+
+    @Override
+    public void refresh(List<Object> store) {
+        ((ObjectStore<?>) store).refresh();
+    }
+
+    @Override
+    public void saveChanges(List<Object> store) {
+        ((ObjectStore<?>) store).saveChanges();
+    }
+
+    @Override
+    public List<Object> getRange(List<Object> store, int startIndex, int endIndex) {
+        return ((ObjectStore<?>) store).getTableManager().getRange(startIndex, endIndex);
+    }
+
+    @Override
+    public List<Object> getAll(List<Object> store) {
+        return ((ObjectStore<?>) store).getTableManager().getAll();
+    }
+
+    @Override
+    public void close(List<Object> store, boolean dispose) {
+        ObjectStore<?> objectStore = (ObjectStore<?>) store;
+        if (dispose) {
+            objectStore.dispose();
+        }
+        objectStore.close();
+    }
+
+    @Override
+    public byte[] encode(String codecName, Object obj) throws IOException {
+        return Codecs.encode(codec(codecName), obj);
+    }
+
+    @Override
+    public Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        return Codecs.decode(bytes);
+    }
+
+    private static Codec codec(String name) {
+        switch (name) {
+            case "JAVA":
+                return Codecs.JAVA;
+            case "BINARY":
+                return Codecs.BINARY;
+            case "JACKSON":
+                return Codecs.JACKSON;
+            default:
+                throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+}
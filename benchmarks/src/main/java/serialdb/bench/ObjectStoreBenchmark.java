@@ -0,0 +1,150 @@
+package serialdb.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectStoreBenchmark {
+
+    private static final int CHANGES_PER_SAVE = 100;
+    private static final int RANGE_LENGTH = 100;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int tableSize;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    @Param({"derby", "log"})
+    public String engine;
+
+    private Storage storage;
+    private List<Object> store;
+    private List<Object> deferredStore;
+    private Random random;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        storage = Storage.load();
+        random = new Random(42);
+        store = open("BENCH_STORE", false);
+        deferredStore = open("BENCH_DEFERRED", true);
+    }
+
+    private List<Object> open(String tableName, boolean deferredWrites) {
+        List<Object> opened = storage.openStore(engine, tableName, false);
+        opened.clear();
+        List<Object> rows = new ArrayList<>();
+        for (int i = 0; i < tableSize; i++) {
+            rows.add(payload());
+            if (rows.size() == 10000 || i == tableSize - 1) {
+                opened.addAll(rows);
+                rows.clear();
+            }
+        }
+        if (deferredWrites) {
+            storage.close(opened, false);
+            opened = storage.openStore(engine, tableName, true);
+        }
+        return opened;
+    }
+
+    // add grows the table; trimming it back keeps tableSize true for the next iteration
+    @TearDown(Level.Iteration)
+    public void trim() {
+        while (store.size() > tableSize) {
+            store.remove(store.size() - 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close(store, true);
+        storage.close(deferredStore, true);
+    }
+
+    private Payload payload() {
+        return Payload.create(nextId++, payloadSize, random);
+    }
+
+    private int randomIndex() {
+        return random.nextInt(store.size());
+    }
+
+    @Benchmark
+    public Object get() {
+        return store.get(randomIndex());
+    }
+
+    @Benchmark
+    public boolean add() {
+        return store.add(payload());
+    }
+
+    @Benchmark
+    public Object set() {
+        return store.set(randomIndex(), payload());
+    }
+
+    // Paired with an add so the table keeps its size across iterations
+    @Benchmark
+    public boolean removeThenAdd() {
+        store.remove(randomIndex());
+        return store.add(payload());
+    }
+
+    @Benchmark
+    public List<Object> getRange() {
+        int start = random.nextInt(Math.max(1, store.size() - RANGE_LENGTH));
+        return storage.getRange(store, start, Math.min(store.size(), start + RANGE_LENGTH) - 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public List<Object> getAll() {
+        return storage.getAll(store);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public int refresh() {
+        storage.refresh(store);
+        return store.size();
+    }
+
+    @Benchmark
+    public void saveChanges() {
+        for (int i = 0; i < CHANGES_PER_SAVE; i++) {
+            deferredStore.set(random.nextInt(deferredStore.size()), payload());
+        }
+        storage.saveChanges(deferredStore);
+    }
+}
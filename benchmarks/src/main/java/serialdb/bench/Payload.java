@@ -0,0 +1,83 @@
+package serialdb.bench;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Random;
+
+public class Payload implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+    private String name;
+    private ArrayList<Integer> values;
+    private String text;
+
+    public Payload() {
+    }
+
+    // Roughly payloadSize bytes of serialized state, half text and half numbers
+    public static Payload create(long id, int payloadSize, Random random) {
+        Payload payload = new Payload();
+        payload.id = id;
+        payload.name = "payload-" + id;
+        payload.values = new ArrayList<>();
+        for (int i = 0; i < payloadSize / 8; i++) {
+            payload.values.add(random.nextInt(1000));
+        }
+        StringBuilder text = new StringBuilder();
+        while (text.length() < payloadSize / 2) {
+            text.append("lorem ipsum ").append(random.nextInt(100)).append(' ');
+        }
+        payload.text = text.toString();
+        return payload;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public ArrayList<Integer> getValues() {
+        return values;
+    }
+
+    public void setValues(ArrayList<Integer> values) {
+        this.values = values;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Payload)) {
+            return false;
+        }
+        Payload other = (Payload) o;
+        return id == other.id && Objects.equals(name, other.name) && Objects.equals(values, other.values)
+                && Objects.equals(text, other.text);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name, values, text);
+    }
+}
@@ -0,0 +1,59 @@
+package serialdb.bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"JAVA", "BINARY", "JACKSON"})
+    public String codec;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private Storage storage;
+    private Payload payload;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storage = Storage.load();
+        payload = Payload.create(1, payloadSize, new Random(42));
+        encoded = storage.encode(codec, payload);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return storage.encode(codec, payload);
+    }
+
+    @Benchmark
+    public Object decode() throws IOException, ClassNotFoundException {
+        return storage.decode(encoded);
+    }
+
+    @Benchmark
+    public Object roundTrip() throws IOException, ClassNotFoundException {
+        return storage.decode(storage.encode(codec, payload));
+    }
+}
@@ -0,0 +1,73 @@
+package serialdb.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Access to the storage classes, which live in the default package and so
+ * cannot be imported here. The implementation is SerialDbStorage.
+ */
+public interface Storage {
+
+    // engine is "derby" or "log"
+    List<Object> openStore(String engine, String tableName, boolean deferredWrites);
+
+    void refresh(List<Object> store);
+
+    void saveChanges(List<Object> store);
+
+    List<Object> getRange(List<Object> store, int startIndex, int endIndex);
+
+    List<Object> getAll(List<Object> store);
+
+    void close(List<Object> store, boolean dispose);
+
+    byte[] encode(String codecName, Object obj) throws IOException;
+
+    Object decode(byte[] bytes) throws IOException, ClassNotFoundException;
+
+    static Storage load() {
+        TemporaryDatabase.init();
+        try {
+            return (Storage) Class.forName("SerialDbStorage").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("SerialDbStorage is not on the classpath", e);
+        }
+    }
+
+    final class TemporaryDatabase {
+
+        private static File home;
+
+        private TemporaryDatabase() {
+        }
+
+        // Derby resolves the relative database path against derby.system.home
+        static synchronized void init() {
+            if (home != null) {
+                return;
+            }
+            try {
+                home = Files.createTempDirectory("serialdb-bench").toFile();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            System.setProperty("derby.system.home", home.getAbsolutePath());
+            System.setProperty("derby.stream.error.file", new File(home, "derby.log").getAbsolutePath());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(home)));
+        }
+
+        private static void delete(File dir) {
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
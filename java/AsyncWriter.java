@@ -0,0 +1,244 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+public class AsyncWriter implements AutoCloseable {
+
+    private static final int DEFAULT_MAX_BATCH = 1000;
+
+    private enum Type {
+        ADD, INSERT, SET, REMOVE, CLEAR, FLUSH, STOP
+    }
+
+    private final TableManager tableManager;
+    private final BlockingQueue<Op> queue;
+    private final int maxBatch;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Consumer<Throwable> errorHandler;
+    private volatile Throwable lastError;
+    private volatile long failedWrites;
+
+    public AsyncWriter(TableManager tableManager, int queueCapacity) {
+        this(tableManager, queueCapacity, DEFAULT_MAX_BATCH);
+    }
+
+    public AsyncWriter(TableManager tableManager, int queueCapacity, int maxBatch) {
+        if (queueCapacity <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("queueCapacity: " + queueCapacity + ", maxBatch: " + maxBatch);
+        }
+        this.tableManager = tableManager;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.thread = new Thread(this::run, "SerialDB-writer-" + tableManager.getTableName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public CompletableFuture<Boolean> add(Object obj) {
+        return enqueue(new Op(Type.ADD, -1, obj));
+    }
+
+    public CompletableFuture<Boolean> insert(int index, Object obj) {
+        return enqueue(new Op(Type.INSERT, index, obj));
+    }
+
+    public CompletableFuture<Boolean> set(int index, Object obj) {
+        return enqueue(new Op(Type.SET, index, obj));
+    }
+
+    public CompletableFuture<Boolean> remove(int index) {
+        return enqueue(new Op(Type.REMOVE, index, null));
+    }
+
+    public CompletableFuture<Boolean> clear() {
+        return enqueue(new Op(Type.CLEAR, -1, null));
+    }
+
+    public void flush() {
+        enqueue(new Op(Type.FLUSH, -1, null)).join();
+    }
+
+    public int getPendingWrites() {
+        return queue.size();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites;
+    }
+
+    public Throwable getLastError() {
+        return lastError;
+    }
+
+    public void setErrorHandler(Consumer<Throwable> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        enqueue(new Op(Type.STOP, -1, null)).join();
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Boolean> enqueue(Op op) {
+        if (!running) {
+            throw new IllegalStateException("Async writer for " + tableManager.getTableName() + " is closed");
+        }
+        try {
+            queue.put(op);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for space in the write queue", e);
+        }
+        return op.future;
+    }
+
+    private void run() {
+        List<Op> batch = new ArrayList<>(maxBatch);
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+
+            List<Op> writes = new ArrayList<>(batch.size());
+            for (Op op : batch) {
+                if (op.type == Type.STOP) {
+                    stop = true;
+                } else if (op.type != Type.FLUSH) {
+                    writes.add(op);
+                }
+            }
+
+            if (!writes.isEmpty() && !applyInTransaction(writes)) {
+                applySeparately(writes);
+            }
+            for (Op op : batch) {
+                if (op.type == Type.FLUSH || op.type == Type.STOP) {
+                    op.future.complete(true);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private boolean applyInTransaction(List<Op> writes) {
+        Transaction transaction;
+        try {
+            transaction = tableManager.beginTransaction();
+        } catch (RuntimeException e) {
+            return false;
+        }
+
+        try {
+            int i = 0;
+            while (i < writes.size()) {
+                if (writes.get(i).type == Type.ADD) {
+                    int end = i;
+                    List<Object> objects = new ArrayList<>();
+                    while (end < writes.size() && writes.get(end).type == Type.ADD) {
+                        objects.add(writes.get(end).obj);
+                        end++;
+                    }
+                    if (!tableManager.addAll(objects)) {
+                        return false;
+                    }
+                    i = end;
+                } else {
+                    if (!apply(writes.get(i))) {
+                        return false;
+                    }
+                    i++;
+                }
+            }
+            if (!transaction.commit()) {
+                return false;
+            }
+        } catch (RuntimeException e) {
+            return false;
+        } finally {
+            if (!transaction.isCompleted()) {
+                transaction.rollback();
+            }
+        }
+
+        for (Op op : writes) {
+            op.future.complete(true);
+        }
+        return true;
+    }
+
+    private void applySeparately(List<Op> writes) {
+        for (Op op : writes) {
+            boolean result;
+            try {
+                result = op.type == Type.ADD ? tableManager.add(op.obj) : apply(op);
+            } catch (RuntimeException e) {
+                fail(op, e);
+                continue;
+            }
+            if (result) {
+                op.future.complete(true);
+            } else {
+                fail(op, new IllegalStateException("Failed to write " + op.type + " at " + op.index
+                        + " to table " + tableManager.getTableName()));
+            }
+        }
+    }
+
+    private boolean apply(Op op) {
+        switch (op.type) {
+        case INSERT:
+            return tableManager.insert(op.index, op.obj);
+        case SET:
+            return tableManager.set(op.index, op.obj) != null;
+        case REMOVE:
+            return tableManager.remove(op.index) != null;
+        case CLEAR:
+            return tableManager.deleteAll();
+        default:
+            return tableManager.add(op.obj);
+        }
+    }
+
+    private void fail(Op op, Throwable error) {
+        failedWrites++;
+        lastError = error;
+        op.future.completeExceptionally(error);
+        Consumer<Throwable> handler = errorHandler;
+        if (handler != null) {
+            handler.accept(error);
+        } else {
+            error.printStackTrace();
+        }
+    }
+
+    private static class Op {
+
+        private final Type type;
+        private final int index;
+        private final Object obj;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private Op(Type type, int index, Object obj) {
+            this.type = type;
+            this.index = index;
+            this.obj = obj;
+        }
+    }
+}
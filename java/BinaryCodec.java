@@ -0,0 +1,278 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+public class BinaryCodec implements Codec {
+
+    public static final int ID = 1;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INTEGER = 2;
+    private static final int LONG = 3;
+    private static final int DOUBLE = 4;
+    private static final int FLOAT = 5;
+    private static final int BOOLEAN = 6;
+    private static final int SHORT = 7;
+    private static final int BYTE = 8;
+    private static final int CHARACTER = 9;
+    private static final int BYTES = 10;
+    private static final int DATE = 11;
+    private static final int BIG_DECIMAL = 12;
+    private static final int BIG_INTEGER = 13;
+    private static final int ARRAY_LIST = 14;
+    private static final int HASH_MAP = 15;
+    private static final int LINKED_HASH_MAP = 16;
+    private static final int HASH_SET = 17;
+    private static final int LINKED_HASH_SET = 18;
+    private static final int EXTERNALIZABLE = 19;
+    private static final int SERIALIZED = 20;
+
+    private final JavaCodec fallback = new JavaCodec();
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public void encode(Object obj, OutputStream out) throws IOException {
+        BinaryOutput output = new BinaryOutput(out);
+        write(obj, output);
+        output.flush();
+    }
+
+    @Override
+    public Object decode(InputStream in) throws IOException, ClassNotFoundException {
+        return read(new BinaryInput(in));
+    }
+
+    private void write(Object obj, BinaryOutput out) throws IOException {
+        if (obj == null) {
+            out.writeByte(NULL);
+        } else if (obj instanceof String) {
+            out.writeByte(STRING);
+            writeBytes(((String) obj).getBytes(StandardCharsets.UTF_8), out);
+        } else if (obj instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) obj);
+        } else if (obj instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) obj);
+        } else if (obj instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) obj);
+        } else if (obj instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) obj);
+        } else if (obj instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) obj);
+        } else if (obj instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) obj);
+        } else if (obj instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) obj);
+        } else if (obj instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) obj);
+        } else if (obj instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes((byte[]) obj, out);
+        } else if (obj.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) obj).getTime());
+        } else if (obj.getClass() == BigDecimal.class) {
+            out.writeByte(BIG_DECIMAL);
+            writeBytes(obj.toString().getBytes(StandardCharsets.UTF_8), out);
+        } else if (obj.getClass() == BigInteger.class) {
+            out.writeByte(BIG_INTEGER);
+            writeBytes(((BigInteger) obj).toByteArray(), out);
+        } else if (obj.getClass() == ArrayList.class) {
+            out.writeByte(ARRAY_LIST);
+            writeElements((Collection<?>) obj, out);
+        } else if (obj.getClass() == HashSet.class) {
+            out.writeByte(HASH_SET);
+            writeElements((Collection<?>) obj, out);
+        } else if (obj.getClass() == LinkedHashSet.class) {
+            out.writeByte(LINKED_HASH_SET);
+            writeElements((Collection<?>) obj, out);
+        } else if (obj.getClass() == HashMap.class) {
+            out.writeByte(HASH_MAP);
+            writeEntries((Map<?, ?>) obj, out);
+        } else if (obj.getClass() == LinkedHashMap.class) {
+            out.writeByte(LINKED_HASH_MAP);
+            writeEntries((Map<?, ?>) obj, out);
+        } else if (obj instanceof Externalizable) {
+            out.writeByte(EXTERNALIZABLE);
+            out.writeUTF(obj.getClass().getName());
+            ((Externalizable) obj).writeExternal(out);
+        } else {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            fallback.encode(obj, bos);
+            writeBytes(bos.toByteArray(), out);
+        }
+    }
+
+    private Object read(BinaryInput in) throws IOException, ClassNotFoundException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case STRING:
+            return new String(readBytes(in), StandardCharsets.UTF_8);
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case DOUBLE:
+            return in.readDouble();
+        case FLOAT:
+            return in.readFloat();
+        case BOOLEAN:
+            return in.readBoolean();
+        case SHORT:
+            return in.readShort();
+        case BYTE:
+            return in.readByte();
+        case CHARACTER:
+            return in.readChar();
+        case BYTES:
+            return readBytes(in);
+        case DATE:
+            return new Date(in.readLong());
+        case BIG_DECIMAL:
+            return new BigDecimal(new String(readBytes(in), StandardCharsets.UTF_8));
+        case BIG_INTEGER:
+            return new BigInteger(readBytes(in));
+        case ARRAY_LIST: {
+            int size = in.readInt();
+            return readElements(new ArrayList<>(size), size, in);
+        }
+        case HASH_SET: {
+            int size = in.readInt();
+            return readElements(new HashSet<>(size * 4 / 3 + 1), size, in);
+        }
+        case LINKED_HASH_SET: {
+            int size = in.readInt();
+            return readElements(new LinkedHashSet<>(size * 4 / 3 + 1), size, in);
+        }
+        case HASH_MAP: {
+            int size = in.readInt();
+            return readEntries(new HashMap<>(size * 4 / 3 + 1), size, in);
+        }
+        case LINKED_HASH_MAP: {
+            int size = in.readInt();
+            return readEntries(new LinkedHashMap<>(size * 4 / 3 + 1), size, in);
+        }
+        case EXTERNALIZABLE:
+            return readExternalizable(in);
+        case SERIALIZED:
+            return fallback.decode(new ByteArrayInputStream(readBytes(in)));
+        default:
+            throw new IOException("Unknown type tag: " + tag);
+        }
+    }
+
+    private void writeBytes(byte[] bytes, BinaryOutput out) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private byte[] readBytes(BinaryInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private void writeElements(Collection<?> elements, BinaryOutput out) throws IOException {
+        out.writeInt(elements.size());
+        for (Object element : elements) {
+            write(element, out);
+        }
+    }
+
+    private Collection<Object> readElements(Collection<Object> target, int size, BinaryInput in)
+            throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            target.add(read(in));
+        }
+        return target;
+    }
+
+    private void writeEntries(Map<?, ?> entries, BinaryOutput out) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            write(entry.getKey(), out);
+            write(entry.getValue(), out);
+        }
+    }
+
+    private Map<Object, Object> readEntries(Map<Object, Object> target, int size, BinaryInput in)
+            throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            Object key = read(in);
+            target.put(key, read(in));
+        }
+        return target;
+    }
+
+    private Object readExternalizable(BinaryInput in) throws IOException, ClassNotFoundException {
+        Class<?> type = Class.forName(in.readUTF());
+        Externalizable obj;
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            obj = (Externalizable) constructor.newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException("Cannot instantiate " + type.getName(), e);
+        }
+        obj.readExternal(in);
+        return obj;
+    }
+
+    private final class BinaryOutput extends DataOutputStream implements ObjectOutput {
+
+        BinaryOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void writeObject(Object obj) throws IOException {
+            BinaryCodec.this.write(obj, this);
+        }
+    }
+
+    private final class BinaryInput extends DataInputStream implements ObjectInput {
+
+        BinaryInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public Object readObject() throws IOException, ClassNotFoundException {
+            return BinaryCodec.this.read(this);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.List;
+
+// Rows inserted or updated after a change sequence, in list order, and the ids deleted since
+public class ChangeSet {
+
+    private final long sequence;
+    private final int[] ids;
+    private final long[] ordinals;
+    private final List<byte[]> rows;
+    private final int[] deletedIds;
+    private final boolean reset;
+
+    public ChangeSet(long sequence, int[] ids, long[] ordinals, List<byte[]> rows, int[] deletedIds, boolean reset) {
+        this.sequence = sequence;
+        this.ids = ids;
+        this.ordinals = ordinals;
+        this.rows = rows;
+        this.deletedIds = deletedIds;
+        this.reset = reset;
+    }
+
+    // Every change up to this sequence is included
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0 && deletedIds.length == 0 && !reset;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public long getOrdinal(int row) {
+        return ordinals[row];
+    }
+
+    public byte[] getRow(int row) {
+        return rows.get(row);
+    }
+
+    public int[] getDeletedIds() {
+        return deletedIds;
+    }
+
+    // The table was cleared or its tombstones pruned past the sequence, so deletes may be missing
+    public boolean isReset() {
+        return reset;
+    }
+}
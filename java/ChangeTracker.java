@@ -0,0 +1,176 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class ChangeTracker {
+
+    private static final int INSERTED = -1;
+
+    private int size;
+    private int[] origins;
+    private final BitSet dirty = new BitSet();
+    private final BitSet removed = new BitSet();
+    private boolean truncated;
+
+    public ChangeTracker(int persistedSize) {
+        reset(persistedSize);
+    }
+
+    public void reset(int persistedSize) {
+        size = persistedSize;
+        origins = null;
+        dirty.clear();
+        removed.clear();
+        truncated = false;
+    }
+
+    public boolean hasChanges() {
+        return origins != null || truncated || !dirty.isEmpty();
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void persistedAdd() {
+        if (origins != null) {
+            throw new IllegalStateException("Pending changes must be saved before writing through");
+        }
+        size++;
+    }
+
+    public void persistedInsert(int index) {
+        if (origins != null) {
+            throw new IllegalStateException("Pending changes must be saved before writing through");
+        }
+        shiftUp(dirty, index);
+        size++;
+    }
+
+    public void persistedSet(int index) {
+        dirty.clear(getOrigin(index));
+    }
+
+    public void persistedRemove(int index) {
+        if (origins != null) {
+            throw new IllegalStateException("Pending changes must be saved before writing through");
+        }
+        shiftDown(dirty, index);
+        size--;
+    }
+
+    public void add() {
+        materialize();
+        if (size == origins.length) {
+            origins = Arrays.copyOf(origins, Math.max(16, size + (size >> 1)));
+        }
+        origins[size++] = INSERTED;
+    }
+
+    public void insert(int index) {
+        materialize();
+        if (size == origins.length) {
+            origins = Arrays.copyOf(origins, Math.max(16, size + (size >> 1)));
+        }
+        System.arraycopy(origins, index, origins, index + 1, size - index);
+        origins[index] = INSERTED;
+        size++;
+    }
+
+    public void update(int index) {
+        markDirty(index);
+    }
+
+    public void remove(int index) {
+        materialize();
+        int origin = origins[index];
+        if (origin != INSERTED) {
+            removed.set(origin);
+            dirty.clear(origin);
+        }
+        System.arraycopy(origins, index + 1, origins, index, size - index - 1);
+        size--;
+    }
+
+    public void truncate() {
+        size = 0;
+        origins = new int[16];
+        dirty.clear();
+        removed.clear();
+        truncated = true;
+    }
+
+    public void markDirty(int index) {
+        int origin = getOrigin(index);
+        if (origin != INSERTED) {
+            dirty.set(origin);
+        }
+    }
+
+    public int getOrigin(int index) {
+        return origins == null ? index : origins[index];
+    }
+
+    public int[] getRemovedPositions() {
+        return removed.stream().toArray();
+    }
+
+    public int[] getUpdatedIndexes() {
+        if (dirty.isEmpty()) {
+            return new int[0];
+        }
+        int[] result = new int[dirty.cardinality()];
+        int count = 0;
+        for (int i = 0; i < size && count < result.length; i++) {
+            int origin = getOrigin(i);
+            if (origin != INSERTED && dirty.get(origin)) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    public int[] getInsertedIndexes() {
+        if (origins == null) {
+            return new int[0];
+        }
+        int count = 0;
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (origins[i] == INSERTED) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private void materialize() {
+        if (origins == null) {
+            origins = new int[Math.max(16, size + 16)];
+            for (int i = 0; i < size; i++) {
+                origins[i] = i;
+            }
+        }
+    }
+
+    private static void shiftUp(BitSet bits, int index) {
+        if (bits.isEmpty() || index >= bits.length()) {
+            return;
+        }
+        BitSet tail = bits.get(index, bits.length());
+        bits.clear(index, bits.length());
+        for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+            bits.set(index + i + 1);
+        }
+    }
+
+    private static void shiftDown(BitSet bits, int index) {
+        if (bits.isEmpty() || index >= bits.length()) {
+            return;
+        }
+        BitSet tail = bits.get(index + 1, bits.length());
+        bits.clear(index, bits.length());
+        for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+            bits.set(index + i);
+        }
+    }
+}
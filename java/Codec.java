@@ -0,0 +1,12 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public interface Codec {
+
+    int getId();
+
+    void encode(Object obj, OutputStream out) throws IOException;
+
+    Object decode(InputStream in) throws IOException, ClassNotFoundException;
+}
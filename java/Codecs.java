@@ -0,0 +1,65 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public final class Codecs {
+
+    public static final Codec JAVA = new JavaCodec();
+    public static final Codec BINARY = new BinaryCodec();
+    public static final Codec JACKSON = new JacksonCodec();
+
+    private static final int JAVA_STREAM_MAGIC = 0xAC;
+    private static final Codec[] REGISTRY = new Codec[128];
+
+    static {
+        register(JAVA);
+        register(BINARY);
+        register(JACKSON);
+    }
+
+    private Codecs() {
+    }
+
+    public static synchronized void register(Codec codec) {
+        int id = codec.getId();
+        if (id < 0 || id >= REGISTRY.length) {
+            throw new IllegalArgumentException("Codec id must be in [0, " + (REGISTRY.length - 1) + "]: " + id);
+        }
+        if (REGISTRY[id] != null && REGISTRY[id].getClass() != codec.getClass()) {
+            throw new IllegalArgumentException("Codec id " + id + " is already used by " + REGISTRY[id].getClass().getName());
+        }
+        REGISTRY[id] = codec;
+    }
+
+    public static Codec get(int id) {
+        Codec codec = id >= 0 && id < REGISTRY.length ? REGISTRY[id] : null;
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown codec id: " + id);
+        }
+        return codec;
+    }
+
+    public static byte[] encode(Codec codec, Object obj) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if (codec.getId() != JavaCodec.ID) {
+            bos.write(codec.getId());
+        }
+        codec.encode(obj, bos);
+        return bos.toByteArray();
+    }
+
+    public static Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        bytes = Compressors.decompress(bytes);
+        int header = bytes[0] & 0xFF;
+        if (header == JAVA_STREAM_MAGIC) {
+            return JAVA.decode(new ByteArrayInputStream(bytes));
+        }
+        return get(header).decode(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+    }
+
+    public static int getCodecId(byte[] bytes) throws IOException {
+        bytes = Compressors.decompress(bytes);
+        int header = bytes[0] & 0xFF;
+        return header == JAVA_STREAM_MAGIC ? JavaCodec.ID : header;
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CompressionStats {
+
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong compressedRows = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    void record(int rawLength, int storedLength, boolean compressed, long nanos) {
+        rows.incrementAndGet();
+        if (compressed) {
+            compressedRows.incrementAndGet();
+        }
+        rawBytes.addAndGet(rawLength);
+        storedBytes.addAndGet(storedLength);
+        compressNanos.addAndGet(nanos);
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getCompressedRows() {
+        return compressedRows.get();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    public double getRatio() {
+        long stored = storedBytes.get();
+        return stored == 0 ? 1.0 : (double) rawBytes.get() / stored;
+    }
+
+    public void reset() {
+        rows.set(0);
+        compressedRows.set(0);
+        rawBytes.set(0);
+        storedBytes.set(0);
+        compressNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rows=%d, compressed=%d, raw=%d B, stored=%d B, ratio=%.2f",
+                getRows(), getCompressedRows(), getRawBytes(), getStoredBytes(), getRatio());
+    }
+}
@@ -0,0 +1,10 @@
+import java.io.IOException;
+
+public interface Compressor {
+
+    int getId();
+
+    byte[] compress(byte[] data) throws IOException;
+
+    byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException;
+}
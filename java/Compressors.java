@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+public final class Compressors {
+
+    public static final Compressor DEFLATE = new DeflateCompressor();
+    public static final Compressor DEFLATE_FAST = new DeflateCompressor(Deflater.BEST_SPEED);
+    public static final Compressor LZ = new LzCompressor();
+
+    // Codec ids use 0..127 and Java streams start with 0xAC, so compressed frames take 0xC0..0xCF
+    private static final int HEADER = 0xC0;
+    private static final Compressor[] REGISTRY = new Compressor[16];
+
+    private static final int GRAM = 8;
+    private static final int SEGMENT = 64;
+
+    static {
+        register(DEFLATE);
+        register(LZ);
+    }
+
+    private Compressors() {
+    }
+
+    public static synchronized void register(Compressor compressor) {
+        int id = compressor.getId();
+        if (id < 0 || id >= REGISTRY.length) {
+            throw new IllegalArgumentException("Compressor id must be in [0, " + (REGISTRY.length - 1) + "]: " + id);
+        }
+        if (REGISTRY[id] != null && REGISTRY[id].getClass() != compressor.getClass()) {
+            throw new IllegalArgumentException("Compressor id " + id + " is already used by "
+                    + REGISTRY[id].getClass().getName());
+        }
+        REGISTRY[id] = compressor;
+    }
+
+    public static Compressor get(int id) {
+        Compressor compressor = id >= 0 && id < REGISTRY.length ? REGISTRY[id] : null;
+        if (compressor == null) {
+            throw new IllegalArgumentException("Unknown compressor id: " + id);
+        }
+        return compressor;
+    }
+
+    public static boolean isCompressed(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] & 0xF0) == HEADER;
+    }
+
+    // Returns null when the frame would not be smaller than the row itself
+    public static byte[] compress(Compressor compressor, byte[] bytes) throws IOException {
+        byte[] payload = compressor.compress(bytes);
+        int headerLength = 1 + varIntLength(bytes.length);
+        if (payload.length + headerLength >= bytes.length) {
+            return null;
+        }
+        byte[] frame = new byte[headerLength + payload.length];
+        frame[0] = (byte) (HEADER | compressor.getId());
+        int pos = 1;
+        int value = bytes.length;
+        while ((value & ~0x7F) != 0) {
+            frame[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[pos++] = (byte) value;
+        System.arraycopy(payload, 0, frame, pos, payload.length);
+        return frame;
+    }
+
+    public static byte[] decompress(byte[] bytes) throws IOException {
+        if (!isCompressed(bytes)) {
+            return bytes;
+        }
+        int pos = 1;
+        int originalLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (pos >= bytes.length || shift > 28) {
+                throw new IOException("Corrupted compressed row header");
+            }
+            int b = bytes[pos++];
+            originalLength |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return get(bytes[0] & 0x0F).decompress(bytes, pos, bytes.length - pos, originalLength);
+    }
+
+    /**
+     * Builds a preset dictionary from sample rows: the segments sharing the most
+     * 8-byte sequences with other rows, most useful ones last.
+     */
+    public static byte[] trainDictionary(Collection<byte[]> samples, int maxSize) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                long gram = gram(sample, i);
+                if (seen.add(gram)) {
+                    counts.merge(gram, 1, Integer::sum);
+                }
+            }
+        }
+
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        List<byte[]> sampleList = new ArrayList<>(samples);
+        for (int s = 0; s < sampleList.size(); s++) {
+            byte[] sample = sampleList.get(s);
+            for (int offset = 0; offset < sample.length; offset += SEGMENT / 2) {
+                int end = Math.min(sample.length, offset + SEGMENT);
+                queue.add(new long[] {score(sample, offset, end, counts), s, offset, end});
+                if (end == sample.length) {
+                    break;
+                }
+            }
+        }
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        while (!queue.isEmpty() && size < maxSize) {
+            long[] segment = queue.poll();
+            byte[] sample = sampleList.get((int) segment[1]);
+            int offset = (int) segment[2];
+            int end = (int) segment[3];
+            long score = score(sample, offset, end, counts);
+            if (score <= 0) {
+                continue;
+            }
+            if (!queue.isEmpty() && score < queue.peek()[0]) {
+                segment[0] = score;
+                queue.add(segment);
+                continue;
+            }
+            for (int i = offset; i + GRAM <= end; i++) {
+                counts.remove(gram(sample, i));
+            }
+            byte[] bytes = Arrays.copyOfRange(sample, offset, Math.min(end, offset + maxSize - size));
+            selected.add(bytes);
+            size += bytes.length;
+        }
+
+        byte[] dictionary = new byte[size];
+        int pos = size;
+        for (byte[] bytes : selected) {
+            pos -= bytes.length;
+            System.arraycopy(bytes, 0, dictionary, pos, bytes.length);
+        }
+        return dictionary;
+    }
+
+    private static long score(byte[] sample, int offset, int end, Map<Long, Integer> counts) {
+        long score = 0;
+        for (int i = offset; i + GRAM <= end; i++) {
+            Integer count = counts.get(gram(sample, i));
+            if (count != null) {
+                score += count - 1;
+            }
+        }
+        return score;
+    }
+
+    private static long gram(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < GRAM; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int varIntLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
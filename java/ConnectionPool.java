@@ -0,0 +1,150 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConnectionPool {
+
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 30000;
+
+    private final String url;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final ArrayDeque<Lease> idle = new ArrayDeque<>();
+    private final List<Lease> all = new ArrayList<>();
+    private final Lease primary;
+    private boolean closed;
+
+    public ConnectionPool(String url, int maxSize, int statementCacheSize) throws SQLException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.statementCacheSize = statementCacheSize;
+        this.primary = open();
+        all.add(primary);
+        idle.add(primary);
+    }
+
+    public synchronized Lease acquire() throws SQLException {
+        long deadline = System.currentTimeMillis() + ACQUIRE_TIMEOUT_MILLIS;
+        while (true) {
+            if (closed) {
+                throw new SQLException("Connection pool is closed");
+            }
+
+            Lease lease = idle.pollFirst();
+            if (lease != null) {
+                return lease;
+            }
+
+            if (all.size() < maxSize) {
+                lease = open();
+                all.add(lease);
+                return lease;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SQLException("Timed out waiting for a connection to " + url);
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+        }
+    }
+
+    public synchronized void release(Lease lease) {
+        if (lease == null) {
+            return;
+        }
+        if (closed) {
+            lease.close();
+            return;
+        }
+        idle.addFirst(lease);
+        notifyAll();
+    }
+
+    public synchronized void evictStatements(String tableName) {
+        for (Lease lease : all) {
+            lease.getStatementCache().requestEvict(tableName);
+        }
+    }
+
+    public synchronized long getStatementCacheHits() {
+        long hits = 0;
+        for (Lease lease : all) {
+            hits += lease.getStatementCache().getHits();
+        }
+        return hits;
+    }
+
+    public synchronized long getStatementCacheMisses() {
+        long misses = 0;
+        for (Lease lease : all) {
+            misses += lease.getStatementCache().getMisses();
+        }
+        return misses;
+    }
+
+    public synchronized int size() {
+        return all.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Connection getPrimaryConnection() {
+        return primary.getConnection();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        for (Lease lease : idle) {
+            lease.close();
+        }
+        idle.clear();
+        notifyAll();
+    }
+
+    private Lease open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        return new Lease(connection, new StatementCache(connection, statementCacheSize));
+    }
+
+    public static class Lease {
+
+        private final Connection connection;
+        private final StatementCache statementCache;
+
+        private Lease(Connection connection, StatementCache statementCache) {
+            this.connection = connection;
+            this.statementCache = statementCache;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public StatementCache getStatementCache() {
+            return statementCache;
+        }
+
+        private void close() {
+            statementCache.close();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
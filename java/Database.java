@@ -1,39 +1,122 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Blob;
+import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class Database {
+public class Database implements StorageEngine {
 
-	private Connection connection;
-	private Statement statement;
+	private ConnectionPool pool;
+	private final String path;
 	private static final String DATABASE_NAME = "DataStore";
+	private static final int STATEMENT_CACHE_SIZE = 64;
+	private static final int DEFAULT_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors());
+	private static final Map<String, RowIdIndex> ROW_ID_INDEXES = new ConcurrentHashMap<>();
+	private static final Map<String, Set<String>> TABLE_CATALOGS = new ConcurrentHashMap<>();
+	private static final Map<String, ReentrantLock> TABLE_LOCKS = new ConcurrentHashMap<>();
+	private static final Set<String> MIGRATED_TABLES = ConcurrentHashMap.newKeySet();
+	// Shared instances by path and credentials, guarded by the map itself
+	private static final Map<String, Database> SHARED = new HashMap<>();
+	private static final long TABLE_LOCK_TIMEOUT_SECONDS = 60;
+	private static final String[] NO_KEYS = new String[0];
+	// Columns of the table layout itself, as opposed to key columns added for secondary indexes
+	private static final Set<String> LAYOUT_COLUMNS = new HashSet<>(
+			Arrays.asList("NID", "DATA", "ORD", "SEQ", "KEYHASH", "KEYDATA"));
+	// Spacing between ordinals of appended rows, leaving room for positional inserts
+	private static final long ORDINAL_GAP = 1L << 20;
+	// Every insert and update stamps its row with the next value; deletes are logged as tombstones
+	private static final String CHANGE_SEQUENCE = "SERIALDB_CHANGE_SEQ";
+	private static final String TOMBSTONE_TABLE = "SERIALDB_TOMBSTONES";
+	// Preset compression dictionaries by table and Adler32 id, so a fresh process can read the rows
+	private static final String DICTIONARY_TABLE = "SERIALDB_DICTIONARIES";
+	// Tombstone nId telling readers behind it that the table was cleared or its log pruned
+	private static final int RESET_ID = -1;
+	private final ThreadLocal<TransactionState> currentTransaction = new ThreadLocal<>();
+	private volatile GroupCommitter groupCommitter;
+	private String sharedKey;
+	private int references;
+	// Path and default schema, which follows the user: each user's tables are separate tables
+	private String schemaKey;
 
 	public Database() {
+		this.path = DATABASE_NAME;
 		String url = "jdbc:derby:" + DATABASE_NAME + ";create=true";
-		connect(url);
+		connect(url, DEFAULT_POOL_SIZE);
 	}
 
 	public Database(String path) {
+		this(path, DEFAULT_POOL_SIZE);
+	}
+
+	public Database(String path, int poolSize) {
+		this.path = path;
 		String url = "jdbc:derby:" + path + ";create=true";
-		connect(url);
+		connect(url, poolSize);
 	}
 
 	public Database(String user, String password) {
+		this.path = DATABASE_NAME;
 		String url = "jdbc:derby:" + DATABASE_NAME + ";create=true;user=" + user + ";password=" + password;
-		connect(url);
+		connect(url, DEFAULT_POOL_SIZE);
 	}
 
 	public Database(String path, String user, String password) {
+		this(path, user, password, DEFAULT_POOL_SIZE);
+	}
+
+	public Database(String path, String user, String password, int poolSize) {
+		this.path = path;
 		String url = "jdbc:derby:" + path + ";create=true;user=" + user + ";password=" + password;
-		connect(url);
+		connect(url, poolSize);
+	}
+
+	public static Database shared() {
+		return shared(DATABASE_NAME, null, null);
+	}
+
+	public static Database shared(String path) {
+		return shared(path, null, null);
+	}
+
+	/**
+	 * Returns the one pooled Database for a path and credentials, opening it on first use.
+	 * Every call takes a reference that close() gives back; the last close() closes the pool.
+	 * Transactions and group commit settings are shared by everyone holding it.
+	 */
+	public static Database shared(String path, String user, String password) {
+		String key = path + "\u0000" + user + "\u0000" + password;
+		synchronized (SHARED) {
+			Database database = SHARED.get(key);
+			if (database == null) {
+				database = user == null ? new Database(path) : new Database(path, user, password);
+				database.sharedKey = key;
+				SHARED.put(key, database);
+			}
+			database.references++;
+			return database;
+		}
 	}
 
 	public boolean createTable(String tableName) {
@@ -42,14 +125,30 @@ public class Database {
 			return false;
 		}
 
+		long start = System.nanoTime();
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
 		try {
+			lease = acquire();
 			String query = "CREATE TABLE " + tableName
-					+ " (nId INTEGER PRIMARY KEY GENERATED ALWAYS AS IDENTITY(Start with 0, Increment by 1), data BLOB)";
-			statement.executeUpdate(query);
+					+ " (nId INTEGER PRIMARY KEY GENERATED ALWAYS AS IDENTITY(Start with 0, Increment by 1), data BLOB,"
+					+ " ord BIGINT, seq BIGINT)";
+			try (Statement statement = lease.getConnection().createStatement()) {
+				statement.executeUpdate(query);
+				statement.executeUpdate("CREATE INDEX " + tableName + "_ORD ON " + tableName + " (ord)");
+				statement.executeUpdate("CREATE INDEX " + tableName + "_SEQ ON " + tableName + " (seq)");
+			}
+			getTableCatalog().add(tableName.toUpperCase());
+			MIGRATED_TABLES.add(indexKey(tableName));
+			invalidateRowIdIndex(tableName);
+			Metrics.recordOperation(path, tableName, Metrics.Operation.CREATE_TABLE, start, 0, 0);
 			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, Metrics.Operation.CREATE_TABLE, e);
 			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
 		}
 	}
 
@@ -59,24 +158,55 @@ public class Database {
 			return false;
 		}
 
+		long start = System.nanoTime();
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
 		try {
+			pool.evictStatements(tableName);
+			lease = acquire();
 			String query = "DROP TABLE " + tableName;
-			statement.executeUpdate(query);
+			try (Statement statement = lease.getConnection().createStatement()) {
+				statement.executeUpdate(query);
+			}
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(TOMBSTONE_TABLE, "purge",
+					"DELETE FROM " + TOMBSTONE_TABLE + " WHERE tableName = ?");
+			preparedStatement.setString(1, tableName.toUpperCase());
+			preparedStatement.executeUpdate();
+			if (isTableExist(DICTIONARY_TABLE)) {
+				preparedStatement = lease.getStatementCache().prepare(DICTIONARY_TABLE, "purge",
+						"DELETE FROM " + DICTIONARY_TABLE + " WHERE tableName = ?");
+				preparedStatement.setString(1, tableName.toUpperCase());
+				preparedStatement.executeUpdate();
+			}
+			// A table recreated under the same name must not look like the old one to readers
+			preparedStatement = prepareTombstone(lease, tableName);
+			preparedStatement.setInt(2, RESET_ID);
+			preparedStatement.executeUpdate();
+			getTableCatalog().remove(tableName.toUpperCase());
+			MIGRATED_TABLES.remove(indexKey(tableName));
+			invalidateRowIdIndex(tableName);
+			Metrics.recordOperation(path, tableName, Metrics.Operation.DELETE_TABLE, start, 0, 0);
 			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, Metrics.Operation.DELETE_TABLE, e);
 			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
 		}
 	}
 
+	// Tables of the current schema, the one unqualified table names resolve to
 	public List<String> listTables() {
 
 		List<String> result = new ArrayList<>();
 
+		ConnectionPool.Lease lease = null;
 		try {
-			DatabaseMetaData metaData = connection.getMetaData();
+			lease = acquire();
+			DatabaseMetaData metaData = lease.getConnection().getMetaData();
 			String[] types = { "TABLE" };
-			ResultSet resultSet = metaData.getTables(null, null, "%", types);
+			ResultSet resultSet = metaData.getTables(null, lease.getConnection().getSchema(), "%", types);
 
 			while (resultSet.next()) {
 				String tableName = resultSet.getString("TABLE_NAME");
@@ -85,7 +215,9 @@ public class Database {
 
 			resultSet.close();
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, null, null, e);
+		} finally {
+			release(lease);
 		}
 
 		return result;
@@ -93,216 +225,1954 @@ public class Database {
 	}
 
 	public boolean isTableExist(String tableName) {
-		return listTables().contains(tableName.toUpperCase());
+		return getTableCatalog().contains(tableName.toUpperCase());
 	}
 
-	public boolean writeData(String tableName, byte[] bytes) {
+	public void invalidateTableCatalog() {
+		TABLE_CATALOGS.remove(schemaKey);
+	}
+
+	private Set<String> getTableCatalog() {
+		Set<String> catalog = TABLE_CATALOGS.get(schemaKey);
+		if (catalog == null) {
+			catalog = ConcurrentHashMap.newKeySet();
+			catalog.addAll(listTables());
+			Set<String> existing = TABLE_CATALOGS.putIfAbsent(schemaKey, catalog);
+			if (existing != null) {
+				catalog = existing;
+			}
+		}
+		return catalog;
+	}
+
+	/**
+	 * Brings a table written by an older version to the current layout: an ord column in nId
+	 * order and a seq column of 0, with their indexes. Only the named table in the current
+	 * schema is touched, in one transaction, once per process; false if it could not be done.
+	 */
+	public boolean migrateTable(String tableName) {
+		String key = indexKey(tableName);
+		if (MIGRATED_TABLES.contains(key)) {
+			return true;
+		}
 		if (!isTableExist(tableName)) {
 			System.err.println("Table " + tableName + " does not exist!");
 			return false;
 		}
 
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		boolean autoCommit = true;
 		try {
-			String query = "INSERT INTO " + tableName + " (data) VALUES (?)";
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			preparedStatement.setBytes(1, bytes);
-			preparedStatement.executeUpdate();
+			lease = acquire();
+			Connection connection = lease.getConnection();
+			String schema = connection.getSchema();
+			String table = tableName.toUpperCase();
+			Set<String> columns = new HashSet<>();
+			try (ResultSet resultSet = connection.getMetaData().getColumns(null, schema, table, "%")) {
+				while (resultSet.next()) {
+					columns.add(resultSet.getString("COLUMN_NAME"));
+				}
+			}
+			if (!columns.contains("NID") || !columns.contains("DATA")) {
+				throw new SQLException("Table " + schema + "." + table + " has no nId and data columns");
+			}
+
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			String qualified = "\"" + schema + "\".\"" + table + "\"";
+			String indexPrefix = "\"" + schema + "\".\"" + table;
+			try (Statement statement = connection.createStatement()) {
+				if (!columns.contains("ORD")) {
+					statement.executeUpdate("ALTER TABLE " + qualified + " ADD COLUMN ord BIGINT");
+					statement.executeUpdate("UPDATE " + qualified + " SET ord = (CAST(nId AS BIGINT) + 1) * " + ORDINAL_GAP);
+					statement.executeUpdate("CREATE INDEX " + indexPrefix + "_ORD\" ON " + qualified + " (ord)");
+				}
+				if (!columns.contains("SEQ")) {
+					statement.executeUpdate("ALTER TABLE " + qualified + " ADD COLUMN seq BIGINT DEFAULT 0");
+					statement.executeUpdate("CREATE INDEX " + indexPrefix + "_SEQ\" ON " + qualified + " (seq)");
+				}
+			}
+			if (autoCommit) {
+				connection.commit();
+				MIGRATED_TABLES.add(key);
+			}
+			invalidateRowIdIndex(tableName);
 			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, null, e);
+			if (autoCommit) {
+				rollbackQuietly(lease);
+			}
 			return false;
+		} finally {
+			restoreAutoCommit(lease, autoCommit);
+			release(lease);
+			unlockTable(lock);
 		}
 	}
 
-	public List<byte[]> readData(String tableName) {
-		if (!isTableExist(tableName)) {
-			createTable(tableName);
-			return Collections.emptyList();
+	// The change sequence and tombstone table every write uses, created with the first connection
+	private boolean createChangeTracking() {
+		if (isTableExist(TOMBSTONE_TABLE)) {
+			return true;
 		}
 
-		List<byte[]> result = new ArrayList<>();
-
+		ConnectionPool.Lease lease = null;
 		try {
-			String query = "SELECT * FROM " + tableName;
-			ResultSet resultSet = statement.executeQuery(query);
-
-			while (resultSet.next()) {
-				Blob blob = resultSet.getBlob("data");
-				byte[] bytes = blob.getBytes(1, (int) blob.length());
-				result.add(bytes);
+			lease = pool.acquire();
+			Connection connection = lease.getConnection();
+			connection.setAutoCommit(false);
+			try (Statement statement = connection.createStatement()) {
+				try {
+					statement.executeUpdate("CREATE SEQUENCE " + CHANGE_SEQUENCE + " AS BIGINT START WITH 1");
+				} catch (SQLException e) {
+					if (!"X0Y68".equals(e.getSQLState())) {
+						throw e;
+					}
+				}
+				statement.executeUpdate("CREATE TABLE " + TOMBSTONE_TABLE
+						+ " (seq BIGINT NOT NULL, tableName VARCHAR(128) NOT NULL, nId INTEGER NOT NULL)");
+				statement.executeUpdate("CREATE INDEX " + TOMBSTONE_TABLE + "_TABLE ON " + TOMBSTONE_TABLE
+						+ " (tableName, seq)");
 			}
-
-			resultSet.close();
+			connection.commit();
+			getTableCatalog().add(TOMBSTONE_TABLE);
+			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, null, null, e);
+			rollbackQuietly(lease);
+			return false;
+		} finally {
+			restoreAutoCommit(lease, true);
+			pool.release(lease);
 		}
+	}
 
-		return result;
+	public boolean writeData(String tableName, byte[] bytes) {
+		return writeData(tableName, bytes, NO_KEYS, null);
+	}
 
+	public boolean insertData(String tableName, int index, byte[] bytes) {
+		return insertData(tableName, index, bytes, NO_KEYS, null);
 	}
 
-	public boolean deleteDataByTableId(String tableName, int id) {
+	/**
+	 * Inserts a row at a list position. The new ordinal goes into the gap between
+	 * its neighbours; only when the gap is used up is the table renumbered.
+	 */
+	public boolean insertData(String tableName, int index, byte[] bytes, String[] keyColumns, Object[] keys) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return false;
+		}
+
+		long start = System.nanoTime();
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		boolean autoCommit = true;
 		try {
-			String query = "DELETE FROM " + tableName + " WHERE nId = ?";
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			preparedStatement.setInt(1, id);
-			int rowsDeleted = preparedStatement.executeUpdate();
-			return rowsDeleted > 0;
+			RowIdIndex rowIdIndex = getRowIdIndex(tableName);
+			if (rowIdIndex == null || index < 0 || index > rowIdIndex.size()) {
+				System.err.println("Invalid insert position " + index + " for table " + tableName);
+				return false;
+			}
+			lease = acquire();
+			Connection connection = lease.getConnection();
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+
+			insertRowAt(lease, tableName, rowIdIndex, index, bytes, keyColumns, keys);
+
+			if (autoCommit) {
+				connection.commit();
+			}
+			Metrics.recordOperation(path, tableName, Metrics.Operation.WRITE, start, 1, bytes.length);
+			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, Metrics.Operation.WRITE, e);
+			invalidateRowIdIndex(tableName);
+			if (autoCommit) {
+				rollbackQuietly(lease);
+			}
 			return false;
+		} finally {
+			restoreAutoCommit(lease, autoCommit);
+			release(lease);
+			unlockTable(lock);
 		}
 	}
 
-	public boolean deleteDataByIndex(String tableName, int index) {
-		return deleteDataByTableId(tableName, getIdByIndex(tableName, index));
+	public boolean writeData(String tableName, byte[] bytes, String[] keyColumns, Object[] keys) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return false;
+		}
+
+		return executeWrite(tableName, Metrics.Operation.WRITE, bytes.length,
+				lease -> insertRow(lease, tableName, bytes, keyColumns, keys));
 	}
 
-	public boolean overwriteDataByTableId(String tableName, int id, byte[] bytes) {
+	public boolean writeDataBatch(String tableName, List<byte[]> rows, int batchSize) {
+		return writeDataBatch(tableName, rows, NO_KEYS, null, batchSize);
+	}
+
+	public boolean writeDataBatch(String tableName, List<byte[]> rows, String[] keyColumns, List<Object[]> keys,
+			int batchSize) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return false;
+		}
+
+		if (batchSize <= 0) {
+			System.err.println("Invalid batch size: " + batchSize);
+			return false;
+		}
+
+		long start = System.nanoTime();
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		boolean autoCommit = true;
 		try {
-			String query = "UPDATE " + tableName + " SET data = ? WHERE nId = ?";
+			lease = acquire();
+			Connection connection = lease.getConnection();
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+
+			insertBatch(lease, tableName, rows, keyColumns, keys, batchSize);
 
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			preparedStatement.setBytes(1, bytes);
-			preparedStatement.setInt(2, id);
-			int rowsDeleted = preparedStatement.executeUpdate();
-			return rowsDeleted > 0;
+			RowIdIndex index = ROW_ID_INDEXES.get(indexKey(tableName));
+			if (index != null) {
+				appendNewIds(lease, tableName, index);
+			}
+
+			if (autoCommit) {
+				connection.commit();
+			}
+			Metrics.recordOperation(path, tableName, Metrics.Operation.WRITE_BATCH, start, rows.size(), totalBytes(rows));
+			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, Metrics.Operation.WRITE_BATCH, e);
+			invalidateRowIdIndex(tableName);
+			if (autoCommit) {
+				rollbackQuietly(lease);
+			}
 			return false;
+		} finally {
+			restoreAutoCommit(lease, autoCommit);
+			release(lease);
+			unlockTable(lock);
 		}
 	}
 
-	public boolean overwriteDataByIndex(String tableName, int index, byte[] bytes) {
-		return overwriteDataByTableId(tableName, getIdByIndex(tableName, index), bytes);
+	public boolean writeChanges(String tableName, int[] deletedIds, int[] updatedIds, List<byte[]> updatedRows,
+			List<byte[]> insertedRows, int batchSize) {
+		return writeChanges(tableName, false, deletedIds, updatedIds, updatedRows, insertedRows, null, batchSize);
 	}
 
-	public int getIdByIndex(String tableName, int index) {
+	public boolean writeChanges(String tableName, int[] deletedIds, int[] updatedIds, List<byte[]> updatedRows,
+			List<byte[]> insertedRows, int[] insertedPositions, int batchSize) {
+		return writeChanges(tableName, false, deletedIds, updatedIds, updatedRows, insertedRows, insertedPositions,
+				batchSize);
+	}
+
+	public boolean writeChanges(String tableName, boolean deleteAll, int[] deletedIds, int[] updatedIds,
+			List<byte[]> updatedRows, List<byte[]> insertedRows, int[] insertedPositions, int batchSize) {
+		return writeChanges(tableName, deleteAll, deletedIds, updatedIds, updatedRows, insertedRows, insertedPositions,
+				NO_KEYS, null, null, batchSize);
+	}
+
+	// insertedPositions are final list positions in ascending order; null appends all inserted rows.
+	// deleteAll empties the table first, in the same transaction, and leaves a reset marker.
+	public boolean writeChanges(String tableName, boolean deleteAll, int[] deletedIds, int[] updatedIds,
+			List<byte[]> updatedRows, List<byte[]> insertedRows, int[] insertedPositions, String[] keyColumns,
+			List<Object[]> updatedKeys, List<Object[]> insertedKeys, int batchSize) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return false;
+		}
+
+		if (batchSize <= 0 || updatedIds.length != updatedRows.size()
+				|| (deleteAll && (deletedIds.length > 0 || updatedIds.length > 0))
+				|| (insertedPositions != null && insertedPositions.length != insertedRows.size())) {
+			System.err.println("Invalid change set for table " + tableName);
+			return false;
+		}
 
+		long start = System.nanoTime();
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		boolean autoCommit = true;
 		try {
-			String query = "SELECT nId FROM " + tableName;
-			ResultSet resultSet = statement.executeQuery(query);
+			RowIdIndex rowIdIndex = insertedPositions != null ? getRowIdIndex(tableName) : null;
+			lease = acquire();
+			Connection connection = lease.getConnection();
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
 
-			int i = 0;
-			while (resultSet.next()) {
-				if (i == index)
-					return resultSet.getInt("nId");
-				i++;
+			if (deleteAll) {
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate("DELETE FROM " + tableName);
+				}
+				PreparedStatement tombstoneStatement = prepareTombstone(lease, tableName);
+				tombstoneStatement.setInt(2, RESET_ID);
+				tombstoneStatement.executeUpdate();
+			}
+
+			if (deletedIds.length > 0) {
+				String query = "DELETE FROM " + tableName + " WHERE nId = ?";
+				PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "delete", query);
+				PreparedStatement tombstoneStatement = prepareTombstone(lease, tableName);
+				int pending = 0;
+				for (int id : deletedIds) {
+					preparedStatement.setInt(1, id);
+					tombstoneStatement.setInt(2, id);
+					tombstoneStatement.addBatch();
+					pending = addToBatch(preparedStatement, pending, batchSize);
+					if (pending == 0) {
+						tombstoneStatement.executeBatch();
+					}
+				}
+				if (pending > 0) {
+					preparedStatement.executeBatch();
+					tombstoneStatement.executeBatch();
+				}
+			}
+
+			if (updatedIds.length > 0) {
+				PreparedStatement preparedStatement = prepareUpdate(lease, tableName, keyColumns);
+				int pending = 0;
+				for (int i = 0; i < updatedIds.length; i++) {
+					preparedStatement.setBytes(1, updatedRows.get(i));
+					setKeys(preparedStatement, 2, keyColumns, updatedKeys == null ? null : updatedKeys.get(i));
+					preparedStatement.setInt(keyColumns.length + 2, updatedIds[i]);
+					pending = addToBatch(preparedStatement, pending, batchSize);
+				}
+				if (pending > 0) {
+					preparedStatement.executeBatch();
+				}
+			}
+
+			RowIdIndex index = ROW_ID_INDEXES.get(indexKey(tableName));
+			if (index != null) {
+				index.removeAll(deleteAll ? index.getIds() : deletedIds);
+			}
+
+			int firstAppended = 0;
+			if (insertedPositions != null) {
+				if (rowIdIndex == null || rowIdIndex != index) {
+					throw new SQLException("Row index of table " + tableName + " is not available");
+				}
+				while (firstAppended < insertedRows.size() && insertedPositions[firstAppended] < index.size()) {
+					insertRowAt(lease, tableName, index, insertedPositions[firstAppended], insertedRows.get(firstAppended),
+							keyColumns, insertedKeys == null ? null : insertedKeys.get(firstAppended));
+					firstAppended++;
+				}
+			}
 
+			if (firstAppended < insertedRows.size()) {
+				insertBatch(lease, tableName, insertedRows.subList(firstAppended, insertedRows.size()), keyColumns,
+						insertedKeys == null ? null : insertedKeys.subList(firstAppended, insertedKeys.size()), batchSize);
+				if (index != null) {
+					appendNewIds(lease, tableName, index);
+				}
 			}
 
+			if (autoCommit) {
+				connection.commit();
+			}
+			Metrics.recordOperation(path, tableName, Metrics.Operation.WRITE_CHANGES, start,
+					deletedIds.length + updatedIds.length + insertedRows.size(),
+					totalBytes(updatedRows) + totalBytes(insertedRows));
+			return true;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.WRITE_CHANGES, e);
+			invalidateRowIdIndex(tableName);
+			if (autoCommit) {
+				rollbackQuietly(lease);
+			}
+			return false;
+		} finally {
+			restoreAutoCommit(lease, autoCommit);
+			release(lease);
+			unlockTable(lock);
+		}
+	}
+
+	public List<byte[]> readData(String tableName) {
+		if (!isTableExist(tableName)) {
+			createTable(tableName);
+			return Collections.emptyList();
+		}
+
+		long start = System.nanoTime();
+		List<byte[]> result = new ArrayList<>();
+
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			String query = "SELECT * FROM " + tableName + " ORDER BY ord";
+			try (Statement statement = lease.getConnection().createStatement();
+					ResultSet resultSet = statement.executeQuery(query)) {
+				while (resultSet.next()) {
+					Blob blob = resultSet.getBlob("data");
+					byte[] bytes = blob.getBytes(1, (int) blob.length());
+					result.add(bytes);
+				}
+			}
+			Metrics.recordOperation(path, tableName, Metrics.Operation.READ, start, result.size(), totalBytes(result));
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, Metrics.Operation.READ, e);
+		} finally {
+			release(lease);
 		}
-		return -1;
+
+		return result;
 
 	}
-	
-	
-	public List<byte[]> readDataInRange(String tableName, int startIndex, int endIndex) {
+
+	public RowIterator iterateData(String tableName) {
+		if (!isTableExist(tableName)) {
+			createTable(tableName);
+			return new RowIterator(null, null);
+		}
+
+		long start = System.nanoTime();
+		// Taken before the scan, so the row index it yields is only installed if nothing was written meanwhile
+		long sequence = ROW_ID_INDEXES.containsKey(indexKey(tableName)) ? -1 : peekChangeSequence(tableName);
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			Statement scanStatement = lease.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			String query = "SELECT nId, ord, data FROM " + tableName + " ORDER BY ord";
+			ConnectionPool.Lease scanLease = lease;
+			RowIterator[] rows = new RowIterator[1];
+			rows[0] = new RowIterator(path, tableName, scanStatement, scanStatement.executeQuery(query), true, () -> {
+				release(scanLease);
+				installRowIdIndex(tableName, rows[0].getRowIdIndex(), sequence);
+				Metrics.recordOperation(path, tableName, Metrics.Operation.SCAN, start, rows[0].getRowCount(),
+						rows[0].getByteCount());
+			});
+			return rows[0];
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.SCAN, e);
+			release(lease);
+			return new RowIterator(null, null);
+		}
+	}
+
+	/**
+	 * Streams the stored rows of a table, undecoded, into a dump file. Writers to the table
+	 * wait until the dump is complete. Returns the number of rows, -1 on failure.
+	 */
+	public long exportTable(String tableName, Path file) {
 		if (!isTableExist(tableName)) {
 			System.err.println("Table " + tableName + " does not exist!");
-			return Collections.emptyList();
+			return -1;
 		}
 
-		if (startIndex < 0 || endIndex < startIndex) {
-			System.err.println("Invalid index range: startIndex=" + startIndex + ", endIndex=" + endIndex);
-			return Collections.emptyList();
+		long start = System.nanoTime();
+		ReentrantLock lock = tableLock(tableName);
+		try (RowIterator rows = iterateData(tableName); TableDump.Writer writer = TableDump.create(file)) {
+			while (rows.hasNext()) {
+				writer.write(rows.next());
+			}
+			if (!rows.isComplete()) {
+				throw new IOException("Scan of table " + tableName + " ended early");
+			}
+			writer.finish();
+			Metrics.recordOperation(path, tableName, Metrics.Operation.SCAN, start, (int) writer.getRowCount(),
+					writer.getByteCount());
+			return writer.getRowCount();
+		} catch (IOException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.SCAN, e);
+			return -1;
+		} catch (IllegalStateException e) {
+			// A failed scan, already reported by the iterator
+			return -1;
+		} finally {
+			unlockTable(lock);
+		}
+	}
+
+	/**
+	 * Appends the rows of a dump file to a table. The whole dump is checked first. An empty
+	 * table is filled by Derby's bulk import, which reads the rows straight out of the dump
+	 * and logs minimally; otherwise the rows are inserted in batches in one transaction.
+	 * Returns the number of rows, -1 on failure.
+	 */
+	public long importTable(String tableName, Path file, int batchSize) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return -1;
 		}
 
-		List<byte[]> result = new ArrayList<>();
+		if (batchSize <= 0) {
+			System.err.println("Invalid batch size: " + batchSize);
+			return -1;
+		}
 
+		long start = System.nanoTime();
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		Path rowsFile = file.toAbsolutePath().resolveSibling(file.getFileName() + ".rows");
 		try {
-			String countQuery = "SELECT COUNT(*) as total FROM " + tableName;
-			ResultSet countResult = statement.executeQuery(countQuery);
-			int totalRows = 0;
-			
-			if (countResult.next()) {
-				totalRows = countResult.getInt("total");
-			}
-			countResult.close();
-			
-			if (totalRows == 0 || startIndex >= totalRows) {
-				return Collections.emptyList();
-			}
-			
-			if (endIndex >= totalRows) {
-				endIndex = totalRows - 1;
-			}
-			
-			String query = "SELECT t.nId, t.data FROM " + tableName + " t " +
-					"JOIN (SELECT nId, ROW_NUMBER() OVER() as rownum FROM " + tableName + ") as r " +
-					"ON t.nId = r.nId " +
-					"WHERE r.rownum BETWEEN ? AND ?";
-					
-			PreparedStatement preparedStatement = connection.prepareStatement(query);
-			preparedStatement.setInt(1, startIndex + 1);
-			preparedStatement.setInt(2, endIndex + 1);
-			
-			ResultSet resultSet = preparedStatement.executeQuery();
+			boolean bulk = getTableSize(tableName) == 0 && file.getFileName().toString().indexOf('"') < 0;
+			long sequence = getChangeSequence(tableName);
+			long rowCount = 0;
+			long byteCount = 0;
+			// Derby's import takes each row as a file.offset.length/ reference into the dump
+			try (TableDump.Reader reader = TableDump.open(file);
+					BufferedWriter rows = bulk ? Files.newBufferedWriter(rowsFile, StandardCharsets.US_ASCII) : null) {
+				while (reader.next()) {
+					rowCount++;
+					byteCount += reader.getRow().length;
+					if (bulk) {
+						rows.write(rowCount * ORDINAL_GAP + "," + sequence + ",\"" + file.getFileName() + "."
+								+ reader.getRowOffset() + "." + reader.getRow().length + "/\"\n");
+					}
+				}
+			}
 
-			while (resultSet.next()) {
-				Blob blob = resultSet.getBlob("data");
-				byte[] bytes = blob.getBytes(1, (int) blob.length());
-				result.add(bytes);
+			lease = acquire();
+			invalidateRowIdIndex(tableName);
+			applyAtomically(lease, current -> {
+				if (bulk) {
+					String query = "CALL SYSCS_UTIL.SYSCS_IMPORT_DATA_LOBS_FROM_EXTFILE(NULL, ?, 'ORD,SEQ,DATA', '1,2,3',"
+							+ " ?, ',', '\"', 'US-ASCII', 1)";
+					try (CallableStatement statement = current.getConnection().prepareCall(query)) {
+						statement.setString(1, tableName.toUpperCase());
+						statement.setString(2, rowsFile.toString());
+						statement.execute();
+					}
+					// Bulk-imported rows carry no sequence of their own, so readers reload in full
+					PreparedStatement preparedStatement = prepareTombstone(current, tableName);
+					preparedStatement.setInt(2, RESET_ID);
+					preparedStatement.executeUpdate();
+				} else {
+					importBatches(current, tableName, file, batchSize);
+				}
+				return true;
+			});
+			invalidateRowIdIndex(tableName);
+			Metrics.recordOperation(path, tableName, Metrics.Operation.WRITE_BATCH, start, (int) rowCount, byteCount);
+			return rowCount;
+		} catch (IOException | SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.WRITE_BATCH, e);
+			invalidateRowIdIndex(tableName);
+			return -1;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+			try {
+				Files.deleteIfExists(rowsFile);
+			} catch (IOException e) {
+				Metrics.recordError(path, tableName, null, e);
 			}
+		}
+	}
 
-			resultSet.close();
-			preparedStatement.close();
-		} catch (SQLException e) {
-			e.printStackTrace();
+	private void importBatches(ConnectionPool.Lease lease, String tableName, Path file, int batchSize)
+			throws SQLException {
+		try (TableDump.Reader reader = TableDump.open(file)) {
+			List<byte[]> batch = new ArrayList<>(batchSize);
+			while (reader.next()) {
+				batch.add(reader.getRow());
+				if (batch.size() == batchSize) {
+					insertBatch(lease, tableName, batch, NO_KEYS, null, batchSize);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				insertBatch(lease, tableName, batch, NO_KEYS, null, batchSize);
+			}
+		} catch (IOException e) {
+			throw new SQLException("Cannot read dump " + file, e);
+		}
+	}
+
+	public boolean deleteDataByTableId(String tableName, int id) {
+		return executeWrite(tableName, Metrics.Operation.DELETE, 0, lease -> deleteRow(lease, tableName, id));
+	}
+
+	public boolean deleteDataByIndex(String tableName, int index) {
+		int id = getIdByIndex(tableName, index);
+		if (id < 0) {
+			return false;
+		}
+		return deleteDataByTableId(tableName, id);
+	}
+
+	public boolean overwriteDataByTableId(String tableName, int id, byte[] bytes) {
+		return overwriteDataByTableId(tableName, id, bytes, NO_KEYS, null);
+	}
+
+	public boolean overwriteDataByTableId(String tableName, int id, byte[] bytes, String[] keyColumns, Object[] keys) {
+		return executeWrite(tableName, Metrics.Operation.UPDATE, bytes.length,
+				lease -> updateRow(lease, tableName, id, bytes, keyColumns, keys));
+	}
+
+	public boolean overwriteDataByIndex(String tableName, int index, byte[] bytes) {
+		return overwriteDataByIndex(tableName, index, bytes, NO_KEYS, null);
+	}
+
+	public boolean overwriteDataByIndex(String tableName, int index, byte[] bytes, String[] keyColumns, Object[] keys) {
+		int id = getIdByIndex(tableName, index);
+		if (id < 0) {
+			return false;
 		}
+		return overwriteDataByTableId(tableName, id, bytes, keyColumns, keys);
+	}
 
+	public Set<String> getKeyColumns(String tableName) {
+		Set<String> result = new LinkedHashSet<>();
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			Connection connection = lease.getConnection();
+			// Only the current schema: other users may have a table of the same name
+			try (ResultSet resultSet = connection.getMetaData().getColumns(null, connection.getSchema(),
+					tableName.toUpperCase(), "%")) {
+				while (resultSet.next()) {
+					String column = resultSet.getString("COLUMN_NAME");
+					if (!LAYOUT_COLUMNS.contains(column)) {
+						result.add(column);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, null, e);
+		} finally {
+			release(lease);
+		}
 		return result;
 	}
-	
-	public int getTableSize(String tableName) {
-	    if (!isTableExist(tableName)) {
-	        System.err.println("Table " + tableName + " does not exist!");
-	        return -1;
-	    }
-	    try {
-	        String countQuery = "SELECT COUNT(*) as total FROM " + tableName;
-	        ResultSet countResult = statement.executeQuery(countQuery);
-	        int totalRows = -1;
-	        
-	        if (countResult.next()) {
-	            totalRows = countResult.getInt("total");
-	        }
-	        countResult.close();
-	        return totalRows;
-	    } catch (SQLException e) {
-	        e.printStackTrace();
-	        return -1;
-	    }
+
+	public boolean addKeyColumn(String tableName, String column, String sqlType) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return false;
+		}
+
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			try (Statement statement = lease.getConnection().createStatement()) {
+				statement.executeUpdate("ALTER TABLE " + tableName + " ADD COLUMN " + column + " " + sqlType);
+				statement.executeUpdate("CREATE INDEX " + keyIndexName(tableName, column) + " ON " + tableName + " ("
+						+ column + ", nId)");
+			}
+			pool.evictStatements(tableName);
+			return true;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, null, e);
+			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+		}
 	}
-	
-	
-	
 
-	public Connection getConnection() {
-		return connection;
+	public boolean dropKeyColumn(String tableName, String column) {
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			try (Statement statement = lease.getConnection().createStatement()) {
+				statement.executeUpdate("DROP INDEX " + keyIndexName(tableName, column));
+				statement.executeUpdate("ALTER TABLE " + tableName + " DROP COLUMN " + column);
+			}
+			pool.evictStatements(tableName);
+			return true;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, null, e);
+			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+		}
 	}
 
-	public void close() {
+	public boolean writeKeysBatch(String tableName, int[] ids, String[] keyColumns, List<Object[]> keys,
+			int batchSize) {
+		if (keyColumns.length == 0 || ids.length == 0) {
+			return true;
+		}
 
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		boolean autoCommit = true;
 		try {
-			statement.close();
-			connection.close();
+			lease = acquire();
+			Connection connection = lease.getConnection();
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+
+			StringBuilder query = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+			for (int i = 0; i < keyColumns.length; i++) {
+				query.append(i == 0 ? "" : ", ").append(keyColumns[i]).append(" = ?");
+			}
+			query.append(" WHERE nId = ?");
+			try (PreparedStatement preparedStatement = connection.prepareStatement(query.toString())) {
+				int pending = 0;
+				for (int i = 0; i < ids.length; i++) {
+					setKeys(preparedStatement, 1, keyColumns, keys.get(i));
+					preparedStatement.setInt(keyColumns.length + 1, ids[i]);
+					pending = addToBatch(preparedStatement, pending, batchSize);
+				}
+				if (pending > 0) {
+					preparedStatement.executeBatch();
+				}
+			}
+
+			if (autoCommit) {
+				connection.commit();
+			}
+			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, null, e);
+			if (autoCommit) {
+				rollbackQuietly(lease);
+			}
+			return false;
+		} finally {
+			restoreAutoCommit(lease, autoCommit);
+			release(lease);
+			unlockTable(lock);
 		}
+	}
+
+	public List<byte[]> findData(String tableName, String column, Object key) {
+		String query = "SELECT data FROM " + tableName + " WHERE " + column + " = ? ORDER BY ord";
+		return queryData(tableName, "find:" + column, query, key);
+	}
 
+	// Either bound may be null for an open range; both bounds are inclusive
+	public List<byte[]> findDataInRange(String tableName, String column, Object from, Object to) {
+		StringBuilder query = new StringBuilder("SELECT data FROM ").append(tableName);
+		List<Object> bounds = new ArrayList<>();
+		if (from != null) {
+			query.append(" WHERE ").append(column).append(" >= ?");
+			bounds.add(from);
+		}
+		if (to != null) {
+			query.append(from != null ? " AND " : " WHERE ").append(column).append(" <= ?");
+			bounds.add(to);
+		}
+		if (from == null && to == null) {
+			query.append(" WHERE ").append(column).append(" IS NOT NULL");
+		}
+		query.append(" ORDER BY ").append(column).append(", ord");
+		String op = "range:" + column + ":" + (from != null) + ":" + (to != null);
+		return queryData(tableName, op, query.toString(), bounds.toArray());
 	}
 
-	private boolean connect(String url) {
+	public boolean createMapTable(String tableName) {
+		if (isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " already exists!");
+			return false;
+		}
+
+		long start = System.nanoTime();
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
 		try {
-			connection = DriverManager.getConnection(url);
-			statement = connection.createStatement();
+			lease = acquire();
+			try (Statement statement = lease.getConnection().createStatement()) {
+				statement.executeUpdate("CREATE TABLE " + tableName
+						+ " (nId INTEGER PRIMARY KEY GENERATED ALWAYS AS IDENTITY(Start with 0, Increment by 1),"
+						+ " keyHash BIGINT NOT NULL, keyData BLOB, data BLOB, ord BIGINT, seq BIGINT)");
+				statement.executeUpdate("CREATE INDEX " + tableName + "_KEYHASH ON " + tableName + " (keyHash)");
+				statement.executeUpdate("CREATE INDEX " + tableName + "_ORD ON " + tableName + " (ord)");
+				statement.executeUpdate("CREATE INDEX " + tableName + "_SEQ ON " + tableName + " (seq)");
+			}
+			getTableCatalog().add(tableName.toUpperCase());
+			MIGRATED_TABLES.add(indexKey(tableName));
+			invalidateRowIdIndex(tableName);
+			Metrics.recordOperation(path, tableName, Metrics.Operation.CREATE_TABLE, start, 0, 0);
 			return true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			Metrics.recordError(path, tableName, Metrics.Operation.CREATE_TABLE, e);
 			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+		}
+	}
+
+	public List<MapRow> readMapRows(String tableName, long keyHash) {
+		return queryMapRows(tableName, "mapFind",
+				"SELECT nId, keyData, data FROM " + tableName + " WHERE keyHash = ? ORDER BY nId", keyHash);
+	}
+
+	public List<MapRow> readMapRows(String tableName) {
+		return queryMapRows(tableName, "mapScan", "SELECT nId, keyData, data FROM " + tableName + " ORDER BY nId",
+				null);
+	}
+
+	private List<MapRow> queryMapRows(String tableName, String op, String query, Long keyHash) {
+		long start = System.nanoTime();
+		List<MapRow> result = new ArrayList<>();
+		long bytesRead = 0;
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, op, query);
+			if (keyHash != null) {
+				preparedStatement.setLong(1, keyHash);
+			}
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					Blob keyBlob = resultSet.getBlob("keyData");
+					Blob dataBlob = resultSet.getBlob("data");
+					byte[] key = keyBlob.getBytes(1, (int) keyBlob.length());
+					byte[] data = dataBlob.getBytes(1, (int) dataBlob.length());
+					keyBlob.free();
+					dataBlob.free();
+					result.add(new MapRow(resultSet.getInt("nId"), key, data));
+					bytesRead += key.length + data.length;
+				}
+			}
+			Metrics.recordOperation(path, tableName, Metrics.Operation.FIND, start, result.size(), bytesRead);
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.FIND, e);
+		} finally {
+			release(lease);
+		}
+		return result;
+	}
+
+	public boolean writeMapRow(String tableName, long keyHash, byte[] key, byte[] data) {
+		return executeWrite(tableName, Metrics.Operation.WRITE, key.length + data.length, lease -> {
+			String query = "INSERT INTO " + tableName + " (keyHash, keyData, data, ord, seq) VALUES (?, ?, ?, ?, NEXT VALUE FOR "
+					+ CHANGE_SEQUENCE + ")";
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "mapInsert", query,
+					Statement.RETURN_GENERATED_KEYS);
+			long ordinal = nextOrdinal(lease, tableName);
+			preparedStatement.setLong(1, keyHash);
+			preparedStatement.setBytes(2, key);
+			preparedStatement.setBytes(3, data);
+			preparedStatement.setLong(4, ordinal);
+			preparedStatement.executeUpdate();
+			appendGeneratedId(preparedStatement, tableName, ordinal);
+			return true;
+		});
+	}
+
+	public boolean deleteAllData(String tableName) {
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			applyAtomically(lease, current -> {
+				try (Statement statement = current.getConnection().createStatement()) {
+					statement.executeUpdate("DELETE FROM " + tableName);
+				}
+				PreparedStatement preparedStatement = prepareTombstone(current, tableName);
+				preparedStatement.setInt(2, RESET_ID);
+				preparedStatement.executeUpdate();
+				return true;
+			});
+			invalidateRowIdIndex(tableName);
+			return true;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.DELETE, e);
+			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+		}
+	}
+
+	private List<byte[]> queryData(String tableName, String op, String query, Object... parameters) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return Collections.emptyList();
+		}
+
+		long start = System.nanoTime();
+		List<byte[]> result = new ArrayList<>();
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, op, query);
+			for (int i = 0; i < parameters.length; i++) {
+				preparedStatement.setObject(i + 1, toSqlValue(parameters[i]));
+			}
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					Blob blob = resultSet.getBlob("data");
+					result.add(blob.getBytes(1, (int) blob.length()));
+					blob.free();
+				}
+			}
+			Metrics.recordOperation(path, tableName, Metrics.Operation.FIND, start, result.size(), totalBytes(result));
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.FIND, e);
+		} finally {
+			release(lease);
+		}
+		return result;
+	}
+
+	public int getIdByIndex(String tableName, int index) {
+		RowIdIndex rowIdIndex = getRowIdIndex(tableName);
+		if (rowIdIndex == null) {
+			return -1;
+		}
+		return rowIdIndex.get(index);
+	}
+
+	// Row ids in list order
+	public int[] getRowIds(String tableName) {
+		RowIdIndex rowIdIndex = getRowIdIndex(tableName);
+		return rowIdIndex == null ? null : rowIdIndex.getIds();
+	}
+
+	// A copy of the row ids and ordinals taken at one point; null on failure
+	public RowIdIndex getRowIdSnapshot(String tableName) {
+		RowIdIndex rowIdIndex = getRowIdIndex(tableName);
+		return rowIdIndex == null ? null : rowIdIndex.copy();
+	}
+
+	// Derby gives every created table a new id, so a dropped and recreated table can be told apart
+	public String getTableId(String tableName) {
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			String query = "SELECT TABLEID FROM SYS.SYSTABLES WHERE TABLENAME = ?";
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare("SYS.SYSTABLES", "tableId", query);
+			preparedStatement.setString(1, tableName.toUpperCase());
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return resultSet.next() ? resultSet.getString(1) : null;
+			}
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, null, e);
+			return null;
+		} finally {
+			release(lease);
+		}
+	}
+
+	/**
+	 * Last change sequence handed out. Read under the table's write lock, so no write to the
+	 * table from this JVM holds a lower sequence that is not committed yet. -1 on failure.
+	 */
+	public long getChangeSequence(String tableName) {
+		ReentrantLock lock = tableLock(tableName);
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			String query = "VALUES SYSCS_UTIL.SYSCS_PEEK_AT_SEQUENCE(CURRENT SCHEMA, '" + CHANGE_SEQUENCE + "')";
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(TOMBSTONE_TABLE, "sequence", query);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return resultSet.next() ? resultSet.getLong(1) - 1 : -1;
+			}
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, null, e);
+			return -1;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+		}
+	}
+
+	// Stores a compression dictionary for the table once; storing it again is a no-op
+	public boolean saveDictionary(String tableName, int dictionaryId, byte[] dictionary) {
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			if (!isTableExist(DICTIONARY_TABLE)) {
+				try (Statement statement = lease.getConnection().createStatement()) {
+					statement.executeUpdate("CREATE TABLE " + DICTIONARY_TABLE + " (tableName VARCHAR(128) NOT NULL,"
+							+ " dictId INTEGER NOT NULL, data BLOB NOT NULL, PRIMARY KEY (tableName, dictId))");
+				} catch (SQLException e) {
+					// Created meanwhile by another process
+					if (!"X0Y32".equals(e.getSQLState())) {
+						throw e;
+					}
+				}
+				getTableCatalog().add(DICTIONARY_TABLE);
+			}
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(DICTIONARY_TABLE, "save",
+					"INSERT INTO " + DICTIONARY_TABLE + " (tableName, dictId, data) VALUES (?, ?, ?)");
+			preparedStatement.setString(1, tableName.toUpperCase());
+			preparedStatement.setInt(2, dictionaryId);
+			preparedStatement.setBytes(3, dictionary);
+			try {
+				preparedStatement.executeUpdate();
+			} catch (SQLException e) {
+				if (!"23505".equals(e.getSQLState())) {
+					throw e;
+				}
+			}
+			return true;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, null, e);
+			return false;
+		} finally {
+			release(lease);
+		}
+	}
+
+	// Compression dictionaries stored for the table by id; null on failure
+	public Map<Integer, byte[]> readDictionaries(String tableName) {
+		Map<Integer, byte[]> dictionaries = new HashMap<>();
+		if (!isTableExist(DICTIONARY_TABLE)) {
+			return dictionaries;
+		}
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(DICTIONARY_TABLE, "read",
+					"SELECT dictId, data FROM " + DICTIONARY_TABLE + " WHERE tableName = ?");
+			preparedStatement.setString(1, tableName.toUpperCase());
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					Blob blob = resultSet.getBlob(2);
+					dictionaries.put(resultSet.getInt(1), blob.getBytes(1, (int) blob.length()));
+				}
+			}
+			return dictionaries;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, null, e);
+			return null;
+		} finally {
+			release(lease);
+		}
+	}
+
+	// Rows inserted or updated and ids deleted after the given sequence; null on failure
+	public ChangeSet readChangesSince(String tableName, long sequence) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return null;
+		}
+
+		long mark = getChangeSequence(tableName);
+		if (mark < 0) {
+			return null;
+		}
+
+		long start = System.nanoTime();
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			String query = "SELECT nId, ord, data FROM " + tableName + " WHERE seq > ? ORDER BY ord";
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "changes", query);
+			preparedStatement.setLong(1, sequence);
+			int[] ids = new int[16];
+			long[] ordinals = new long[16];
+			List<byte[]> rows = new ArrayList<>();
+			long bytesRead = 0;
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					if (rows.size() == ids.length) {
+						ids = Arrays.copyOf(ids, ids.length * 2);
+						ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+					}
+					ids[rows.size()] = resultSet.getInt("nId");
+					ordinals[rows.size()] = resultSet.getLong("ord");
+					Blob blob = resultSet.getBlob("data");
+					byte[] bytes = blob.getBytes(1, (int) blob.length());
+					blob.free();
+					rows.add(bytes);
+					bytesRead += bytes.length;
+				}
+			}
+
+			query = "SELECT nId FROM " + TOMBSTONE_TABLE + " WHERE tableName = ? AND seq > ?";
+			preparedStatement = lease.getStatementCache().prepare(TOMBSTONE_TABLE, "tombstones", query);
+			preparedStatement.setString(1, tableName.toUpperCase());
+			preparedStatement.setLong(2, sequence);
+			int[] deletedIds = new int[16];
+			int deleted = 0;
+			boolean reset = false;
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					int id = resultSet.getInt(1);
+					if (id == RESET_ID) {
+						reset = true;
+					} else {
+						if (deleted == deletedIds.length) {
+							deletedIds = Arrays.copyOf(deletedIds, deleted * 2);
+						}
+						deletedIds[deleted++] = id;
+					}
+				}
+			}
+
+			Metrics.recordOperation(path, tableName, Metrics.Operation.SCAN, start, rows.size() + deleted, bytesRead);
+			return new ChangeSet(mark, Arrays.copyOf(ids, rows.size()), Arrays.copyOf(ordinals, rows.size()), rows,
+					Arrays.copyOf(deletedIds, deleted), reset);
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.SCAN, e);
+			return null;
+		} finally {
+			release(lease);
+		}
+	}
+
+	/**
+	 * Applies a change set to the row index. The result gives, for each position of the new
+	 * list order, the old position of the row or -1 - k for row k of the change set. Null
+	 * if the index does not hold expectedSize rows, since the caller's list is then not
+	 * aligned with it.
+	 */
+	public int[] mergeChanges(String tableName, ChangeSet changes, int expectedSize) {
+		ReentrantLock lock = tableLock(tableName);
+		try {
+			RowIdIndex index = getRowIdIndex(tableName);
+			if (index == null || index.size() != expectedSize) {
+				return null;
+			}
+			int[] ids = index.getIds();
+			long[] ordinals = index.getOrdinals();
+			Set<Integer> deleted = new HashSet<>();
+			for (int id : changes.getDeletedIds()) {
+				deleted.add(id);
+			}
+			Set<Integer> replaced = new HashSet<>(deleted);
+			for (int i = 0; i < changes.size(); i++) {
+				replaced.add(changes.getId(i));
+			}
+
+			int capacity = ids.length + changes.size();
+			int[] sources = new int[capacity];
+			int[] mergedIds = new int[Math.max(16, capacity)];
+			long[] mergedOrdinals = new long[Math.max(16, capacity)];
+			int size = 0;
+			int old = 0;
+			int changed = 0;
+			while (old < ids.length || changed < changes.size()) {
+				if (old < ids.length && replaced.contains(ids[old])) {
+					old++;
+				} else if (changed < changes.size() && deleted.contains(changes.getId(changed))) {
+					// Updated, then deleted while the change set was read
+					changed++;
+				} else if (changed < changes.size()
+						&& (old == ids.length || changes.getOrdinal(changed) < ordinals[old])) {
+					sources[size] = -1 - changed;
+					mergedIds[size] = changes.getId(changed);
+					mergedOrdinals[size++] = changes.getOrdinal(changed++);
+				} else {
+					sources[size] = old;
+					mergedIds[size] = ids[old];
+					mergedOrdinals[size++] = ordinals[old++];
+				}
+			}
+			ROW_ID_INDEXES.put(indexKey(tableName), new RowIdIndex(mergedIds, mergedOrdinals, size));
+			return Arrays.copyOf(sources, size);
+		} finally {
+			unlockTable(lock);
+		}
+	}
+
+	/**
+	 * Drops a table's tombstones up to a sequence. A reader whose last refresh is older than
+	 * that can no longer see every delete, so it finds a reset marker and reloads in full.
+	 */
+	public boolean pruneTombstones(String tableName, long upToSequence) {
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			return applyAtomically(lease, current -> {
+				PreparedStatement preparedStatement = current.getStatementCache().prepare(TOMBSTONE_TABLE, "prune",
+						"DELETE FROM " + TOMBSTONE_TABLE + " WHERE tableName = ? AND seq <= ?");
+				preparedStatement.setString(1, tableName.toUpperCase());
+				preparedStatement.setLong(2, upToSequence);
+				preparedStatement.executeUpdate();
+				preparedStatement = current.getStatementCache().prepare(TOMBSTONE_TABLE, "marker",
+						"INSERT INTO " + TOMBSTONE_TABLE + " (seq, tableName, nId) VALUES (?, ?, ?)");
+				preparedStatement.setLong(1, upToSequence);
+				preparedStatement.setString(2, tableName.toUpperCase());
+				preparedStatement.setInt(3, RESET_ID);
+				preparedStatement.executeUpdate();
+				return true;
+			});
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.DELETE, e);
+			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+		}
+	}
+
+	public void invalidateRowIdIndex(String tableName) {
+		ROW_ID_INDEXES.remove(indexKey(tableName));
+	}
+
+	// Changes whenever a row enters or leaves the table's row index, or the index is reloaded; -1 on failure
+	long getRowIdVersion(String tableName) {
+		RowIdIndex index = getRowIdIndex(tableName);
+		return index != null ? index.getVersion() : -1;
+	}
+
+	/**
+	 * A full scan yields the row index for free. It is kept only if no index was loaded
+	 * meanwhile and the change sequence is still the one taken before the scan: a row written
+	 * while the scan ran may be missing from it, and writes made while no index is loaded
+	 * are not recorded anywhere else.
+	 */
+	private void installRowIdIndex(String tableName, RowIdIndex index, long sequence) {
+		String key = indexKey(tableName);
+		if (index == null || sequence < 0 || ROW_ID_INDEXES.containsKey(key)) {
+			return;
+		}
+		// Never waits: a writer holding the lock may be changing the rows just scanned
+		ReentrantLock lock = TABLE_LOCKS.computeIfAbsent(key, k -> new ReentrantLock());
+		if (lock.tryLock()) {
+			try {
+				if (getChangeSequence(tableName) == sequence) {
+					ROW_ID_INDEXES.putIfAbsent(key, index);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	// Change sequence with no write of this JVM in flight; -1 if a writer holds the table lock
+	private long peekChangeSequence(String tableName) {
+		ReentrantLock lock = TABLE_LOCKS.computeIfAbsent(indexKey(tableName), key -> new ReentrantLock());
+		if (!lock.tryLock()) {
+			return -1;
+		}
+		try {
+			return getChangeSequence(tableName);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private RowIdIndex getRowIdIndex(String tableName) {
+		String key = indexKey(tableName);
+		RowIdIndex index = ROW_ID_INDEXES.get(key);
+		if (index == null) {
+			ReentrantLock lock = tableLock(tableName);
+			try {
+				index = ROW_ID_INDEXES.get(key);
+				if (index == null) {
+					index = loadRowIdIndex(tableName);
+					if (index != null) {
+						ROW_ID_INDEXES.put(key, index);
+					}
+				}
+			} finally {
+				unlockTable(lock);
+			}
+		}
+		return index;
+	}
+
+	public Transaction beginTransaction() {
+		TransactionState state = currentTransaction.get();
+		if (state == null) {
+			ConnectionPool.Lease lease = null;
+			try {
+				lease = pool.acquire();
+				lease.getConnection().setAutoCommit(false);
+			} catch (SQLException e) {
+				pool.release(lease);
+				throw new IllegalStateException("Cannot begin transaction", e);
+			}
+			state = new TransactionState(lease);
+			currentTransaction.set(state);
+		}
+		state.depth++;
+		return new Transaction(this, state.rollbackActions);
+	}
+
+	public boolean commit() {
+		return finishTransaction(false);
+	}
+
+	public boolean rollback() {
+		if (currentTransaction.get() == null) {
+			System.err.println("No active transaction!");
+			return false;
+		}
+		finishTransaction(true);
+		return true;
+	}
+
+	public boolean isInTransaction() {
+		return currentTransaction.get() != null;
+	}
+
+	// Runs the action if the current thread's transaction rolls back; ignored outside a transaction
+	public void onRollback(Runnable action) {
+		TransactionState state = currentTransaction.get();
+		if (state != null && !state.rollbackActions.contains(action)) {
+			state.rollbackActions.add(action);
+		}
+	}
+
+	public void setGroupCommit(boolean enabled) {
+		groupCommitter = enabled ? new GroupCommitter(this, pool) : null;
+	}
+
+	public boolean isGroupCommit() {
+		return groupCommitter != null;
+	}
+
+	public GroupCommitter getGroupCommitter() {
+		return groupCommitter;
+	}
+
+	private boolean finishTransaction(boolean rollback) {
+		TransactionState state = currentTransaction.get();
+		if (state == null) {
+			System.err.println("No active transaction!");
+			return false;
+		}
+
+		if (rollback) {
+			state.rollbackOnly = true;
+		}
+		if (--state.depth > 0) {
+			return !state.rollbackOnly;
+		}
+		currentTransaction.remove();
+
+		boolean committed = false;
+		try {
+			if (state.rollbackOnly) {
+				state.lease.getConnection().rollback();
+			} else {
+				state.lease.getConnection().commit();
+				committed = true;
+			}
+		} catch (SQLException e) {
+			Metrics.recordError(path, null, null, e);
+			rollbackQuietly(state.lease);
+		} finally {
+			restoreAutoCommit(state.lease, true);
+			pool.release(state.lease);
+			if (!committed) {
+				for (String tableName : state.tables) {
+					invalidateRowIdIndex(tableName);
+				}
+				invalidateTableCatalog();
+			}
+			for (ReentrantLock lock : state.locks) {
+				lock.unlock();
+			}
+		}
+
+		if (!committed) {
+			for (Runnable action : state.rollbackActions) {
+				action.run();
+			}
+		}
+		return committed;
+	}
+
+	private ConnectionPool.Lease acquire() throws SQLException {
+		TransactionState state = currentTransaction.get();
+		if (state != null) {
+			return state.lease;
+		}
+		return pool.acquire();
+	}
+
+	private void release(ConnectionPool.Lease lease) {
+		TransactionState state = currentTransaction.get();
+		if (state != null && state.lease == lease) {
+			return;
+		}
+		pool.release(lease);
+	}
+
+	private boolean executeWrite(String tableName, Metrics.Operation operation, int bytes, RowWrite write) {
+		long start = System.nanoTime();
+		// Loaded up front: a load from inside a group commit would not see the leader's uncommitted rows
+		getRowIdIndex(tableName);
+		GroupCommitter committer = groupCommitter;
+		if (committer != null && currentTransaction.get() == null) {
+			boolean written = committer.submit(tableName, write);
+			if (written) {
+				Metrics.recordOperation(path, tableName, operation, start, 1, bytes);
+			}
+			return written;
+		}
+
+		ReentrantLock lock = lockTable(tableName);
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			boolean written = write.apply(lease);
+			if (written) {
+				Metrics.recordOperation(path, tableName, operation, start, 1, bytes);
+			}
+			return written;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, operation, e);
+			return false;
+		} finally {
+			release(lease);
+			unlockTable(lock);
+		}
+	}
+
+	private boolean insertRow(ConnectionPool.Lease lease, String tableName, byte[] bytes, String[] keyColumns,
+			Object[] keys) throws SQLException {
+		PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName,
+				"insert" + keySuffix(keyColumns), insertQuery(tableName, keyColumns), Statement.RETURN_GENERATED_KEYS);
+		long ordinal = nextOrdinal(lease, tableName);
+		preparedStatement.setBytes(1, bytes);
+		preparedStatement.setLong(2, ordinal);
+		setKeys(preparedStatement, 3, keyColumns, keys);
+		preparedStatement.executeUpdate();
+		appendGeneratedId(preparedStatement, tableName, ordinal);
+		return true;
+	}
+
+	private void insertRowAt(ConnectionPool.Lease lease, String tableName, RowIdIndex index, int position, byte[] bytes,
+			String[] keyColumns, Object[] keys) throws SQLException {
+		long ordinal = ordinalAt(lease, tableName, index, position);
+		PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName,
+				"insert" + keySuffix(keyColumns), insertQuery(tableName, keyColumns), Statement.RETURN_GENERATED_KEYS);
+		preparedStatement.setBytes(1, bytes);
+		preparedStatement.setLong(2, ordinal);
+		setKeys(preparedStatement, 3, keyColumns, keys);
+		preparedStatement.executeUpdate();
+
+		try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+			if (!generatedKeys.next()) {
+				throw new SQLException("No generated key for row inserted into " + tableName);
+			}
+			index.insert(position, generatedKeys.getInt(1), ordinal);
+		}
+	}
+
+	private long ordinalAt(ConnectionPool.Lease lease, String tableName, RowIdIndex index, int position)
+			throws SQLException {
+		if (position == index.size()) {
+			return index.getLastOrdinal() + ORDINAL_GAP;
+		}
+		if (position == 0) {
+			return index.getOrdinal(0) - ORDINAL_GAP;
+		}
+		long before = index.getOrdinal(position - 1);
+		long after = index.getOrdinal(position);
+		if (after - before < 2) {
+			renumber(lease, tableName, index);
+			before = index.getOrdinal(position - 1);
+			after = index.getOrdinal(position);
+		}
+		return before + (after - before) / 2;
+	}
+
+	private void renumber(ConnectionPool.Lease lease, String tableName, RowIdIndex index) throws SQLException {
+		String query = "UPDATE " + tableName + " SET ord = ?, seq = NEXT VALUE FOR " + CHANGE_SEQUENCE + " WHERE nId = ?";
+		PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "renumber", query);
+		int pending = 0;
+		for (int i = 0; i < index.size(); i++) {
+			long ordinal = (i + 1) * ORDINAL_GAP;
+			preparedStatement.setLong(1, ordinal);
+			preparedStatement.setInt(2, index.get(i));
+			pending = addToBatch(preparedStatement, pending, 1000);
+			index.setOrdinal(i, ordinal);
+		}
+		if (pending > 0) {
+			preparedStatement.executeBatch();
+		}
+	}
+
+	private long nextOrdinal(ConnectionPool.Lease lease, String tableName) throws SQLException {
+		RowIdIndex index = ROW_ID_INDEXES.get(indexKey(tableName));
+		if (index != null) {
+			return index.getLastOrdinal() + ORDINAL_GAP;
+		}
+		String query = "SELECT MAX(ord) FROM " + tableName;
+		PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "maxOrd", query);
+		try (ResultSet resultSet = preparedStatement.executeQuery()) {
+			return (resultSet.next() ? resultSet.getLong(1) : 0) + ORDINAL_GAP;
+		}
+	}
+
+	private void appendGeneratedId(PreparedStatement preparedStatement, String tableName, long ordinal)
+			throws SQLException {
+		RowIdIndex index = ROW_ID_INDEXES.get(indexKey(tableName));
+		if (index != null) {
+			ResultSet generatedKeys = preparedStatement.getGeneratedKeys();
+			if (generatedKeys.next()) {
+				index.append(generatedKeys.getInt(1), ordinal);
+			} else {
+				invalidateRowIdIndex(tableName);
+			}
+			generatedKeys.close();
+		}
+	}
+
+	private boolean deleteRow(ConnectionPool.Lease lease, String tableName, int id) throws SQLException {
+		boolean deleted = applyAtomically(lease, current -> {
+			String query = "DELETE FROM " + tableName + " WHERE nId = ?";
+			PreparedStatement preparedStatement = current.getStatementCache().prepare(tableName, "delete", query);
+			preparedStatement.setInt(1, id);
+			if (preparedStatement.executeUpdate() == 0) {
+				return false;
+			}
+			PreparedStatement tombstoneStatement = prepareTombstone(current, tableName);
+			tombstoneStatement.setInt(2, id);
+			tombstoneStatement.executeUpdate();
+			return true;
+		});
+
+		RowIdIndex index = ROW_ID_INDEXES.get(indexKey(tableName));
+		if (index != null && deleted) {
+			index.remove(id);
+		}
+		return deleted;
+	}
+
+	private PreparedStatement prepareTombstone(ConnectionPool.Lease lease, String tableName) throws SQLException {
+		String query = "INSERT INTO " + TOMBSTONE_TABLE + " (seq, tableName, nId) VALUES (NEXT VALUE FOR "
+				+ CHANGE_SEQUENCE + ", ?, ?)";
+		PreparedStatement preparedStatement = lease.getStatementCache().prepare(TOMBSTONE_TABLE, "tombstone", query);
+		preparedStatement.setString(1, tableName.toUpperCase());
+		return preparedStatement;
+	}
+
+	// Runs a write as one unit: in its own transaction unless the lease is already inside one
+	private boolean applyAtomically(ConnectionPool.Lease lease, RowWrite write) throws SQLException {
+		Connection connection = lease.getConnection();
+		if (!connection.getAutoCommit()) {
+			return write.apply(lease);
+		}
+		connection.setAutoCommit(false);
+		try {
+			boolean result = write.apply(lease);
+			connection.commit();
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			rollbackQuietly(lease);
+			throw e;
+		} finally {
+			restoreAutoCommit(lease, true);
+		}
+	}
+
+	private boolean updateRow(ConnectionPool.Lease lease, String tableName, int id, byte[] bytes, String[] keyColumns,
+			Object[] keys) throws SQLException {
+		PreparedStatement preparedStatement = prepareUpdate(lease, tableName, keyColumns);
+		preparedStatement.setBytes(1, bytes);
+		setKeys(preparedStatement, 2, keyColumns, keys);
+		preparedStatement.setInt(keyColumns.length + 2, id);
+		return preparedStatement.executeUpdate() > 0;
+	}
+
+	private PreparedStatement prepareUpdate(ConnectionPool.Lease lease, String tableName, String[] keyColumns)
+			throws SQLException {
+		StringBuilder query = new StringBuilder("UPDATE ").append(tableName).append(" SET data = ?, seq = NEXT VALUE FOR ")
+				.append(CHANGE_SEQUENCE);
+		for (String column : keyColumns) {
+			query.append(", ").append(column).append(" = ?");
+		}
+		query.append(" WHERE nId = ?");
+		return lease.getStatementCache().prepare(tableName, "update" + keySuffix(keyColumns), query.toString());
+	}
+
+	private static String insertQuery(String tableName, String[] keyColumns) {
+		StringBuilder columns = new StringBuilder("data, ord, seq");
+		StringBuilder values = new StringBuilder("?, ?, NEXT VALUE FOR " + CHANGE_SEQUENCE);
+		for (String column : keyColumns) {
+			columns.append(", ").append(column);
+			values.append(", ?");
+		}
+		return "INSERT INTO " + tableName + " (" + columns + ") VALUES (" + values + ")";
+	}
+
+	private static String keySuffix(String[] keyColumns) {
+		return keyColumns.length == 0 ? "" : ":" + String.join(",", keyColumns);
+	}
+
+	private static void setKeys(PreparedStatement preparedStatement, int firstParameter, String[] keyColumns,
+			Object[] keys) throws SQLException {
+		for (int i = 0; i < keyColumns.length; i++) {
+			Object value = keys == null ? null : toSqlValue(keys[i]);
+			if (value == null) {
+				preparedStatement.setNull(firstParameter + i,
+						preparedStatement.getParameterMetaData().getParameterType(firstParameter + i));
+			} else {
+				preparedStatement.setObject(firstParameter + i, value);
+			}
+		}
+	}
+
+	private static Object toSqlValue(Object key) {
+		if (key instanceof Date && !(key instanceof java.sql.Date) && !(key instanceof Timestamp)) {
+			return new Timestamp(((Date) key).getTime());
+		}
+		if (key instanceof Character || key instanceof Enum) {
+			return key.toString();
+		}
+		return key;
+	}
+
+	private String keyIndexName(String tableName, String column) {
+		return tableName.toUpperCase() + "_" + column.toUpperCase();
+	}
+
+	ReentrantLock lockTable(String tableName) {
+		ReentrantLock lock = tableLock(tableName);
+		TransactionState state = currentTransaction.get();
+		if (state != null && state.tables.add(tableName.toUpperCase())) {
+			lock.lock();
+			state.locks.add(lock);
+		}
+		return lock;
+	}
+
+	void unlockTable(ReentrantLock lock) {
+		lock.unlock();
+	}
+
+	private ReentrantLock tableLock(String tableName) {
+		ReentrantLock lock = TABLE_LOCKS.computeIfAbsent(indexKey(tableName), key -> new ReentrantLock());
+		try {
+			if (!lock.tryLock(TABLE_LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("Timed out waiting for write lock on table " + tableName);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for write lock on table " + tableName, e);
+		}
+		return lock;
+	}
+
+	private void insertBatch(ConnectionPool.Lease lease, String tableName, List<byte[]> rows, String[] keyColumns,
+			List<Object[]> keys, int batchSize) throws SQLException {
+		PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName,
+				"insertBatch" + keySuffix(keyColumns), insertQuery(tableName, keyColumns));
+
+		long ordinal = nextOrdinal(lease, tableName);
+		int pending = 0;
+		for (int i = 0; i < rows.size(); i++) {
+			preparedStatement.setBytes(1, rows.get(i));
+			preparedStatement.setLong(2, ordinal + i * ORDINAL_GAP);
+			setKeys(preparedStatement, 3, keyColumns, keys == null ? null : keys.get(i));
+			pending = addToBatch(preparedStatement, pending, batchSize);
+		}
+		if (pending > 0) {
+			preparedStatement.executeBatch();
+		}
+	}
+
+	private int addToBatch(PreparedStatement preparedStatement, int pending, int batchSize) throws SQLException {
+		preparedStatement.addBatch();
+		if (++pending == batchSize) {
+			preparedStatement.executeBatch();
+			return 0;
+		}
+		return pending;
+	}
+
+	private void appendNewIds(ConnectionPool.Lease lease, String tableName, RowIdIndex index) throws SQLException {
+		long lastOrdinal = index.size() > 0 ? index.getLastOrdinal() : Long.MIN_VALUE;
+		String query = "SELECT nId, ord FROM " + tableName + " WHERE ord > ? ORDER BY ord";
+		PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "newIds", query);
+		preparedStatement.setLong(1, lastOrdinal);
+
+		ResultSet resultSet = preparedStatement.executeQuery();
+		while (resultSet.next()) {
+			index.append(resultSet.getInt("nId"), resultSet.getLong("ord"));
+		}
+		resultSet.close();
+	}
+
+	private void rollbackQuietly(ConnectionPool.Lease lease) {
+		if (lease == null) {
+			return;
+		}
+		try {
+			lease.getConnection().rollback();
+		} catch (SQLException e) {
+			Metrics.recordError(path, null, null, e);
+		}
+	}
+
+	private void restoreAutoCommit(ConnectionPool.Lease lease, boolean autoCommit) {
+		if (lease == null) {
+			return;
+		}
+		try {
+			lease.getConnection().setAutoCommit(autoCommit);
+		} catch (SQLException e) {
+			Metrics.recordError(path, null, null, e);
+		}
+	}
+
+	private RowIdIndex loadRowIdIndex(String tableName) {
+		long start = System.nanoTime();
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			String query = "SELECT nId, ord FROM " + tableName + " ORDER BY ord";
+
+			int[] ids = new int[1024];
+			long[] ordinals = new long[1024];
+			int size = 0;
+			try (Statement statement = lease.getConnection().createStatement();
+					ResultSet resultSet = statement.executeQuery(query)) {
+				while (resultSet.next()) {
+					if (size == ids.length) {
+						ids = Arrays.copyOf(ids, size * 2);
+						ordinals = Arrays.copyOf(ordinals, size * 2);
+					}
+					ids[size] = resultSet.getInt(1);
+					ordinals[size++] = resultSet.getLong(2);
+				}
+			}
+
+			Metrics.recordOperation(path, tableName, Metrics.Operation.LOAD_INDEX, start, size, 0);
+			return new RowIdIndex(ids, ordinals, size);
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.LOAD_INDEX, e);
+			return null;
+		} finally {
+			release(lease);
+		}
+	}
+
+	private static long totalBytes(List<byte[]> rows) {
+		long total = 0;
+		for (byte[] bytes : rows) {
+			total += bytes.length;
+		}
+		return total;
+	}
+
+	private String indexKey(String tableName) {
+		return schemaKey + "." + tableName.toUpperCase();
+	}
+	
+	
+	public List<byte[]> readDataInRange(String tableName, int startIndex, int endIndex) {
+		if (!isTableExist(tableName)) {
+			System.err.println("Table " + tableName + " does not exist!");
+			return Collections.emptyList();
+		}
+
+		if (startIndex < 0 || endIndex < startIndex) {
+			System.err.println("Invalid index range: startIndex=" + startIndex + ", endIndex=" + endIndex);
+			return Collections.emptyList();
+		}
+
+		RowIdIndex index = getRowIdIndex(tableName);
+		if (index == null || startIndex >= index.size()) {
+			return Collections.emptyList();
+		}
+
+		List<byte[]> result = new ArrayList<>();
+		readPage(tableName, index.getOrdinal(startIndex) - 1, endIndex - startIndex + 1, result);
+		return result;
+	}
+
+	/**
+	 * Rows with ordinals from fromOrdinal to toOrdinal in list order. False, with target left
+	 * partly filled, on failure or when the ids read are not expectedIds, that is when the
+	 * range was written to after the caller took its ids.
+	 */
+	public boolean readDataInOrdinalRange(String tableName, long fromOrdinal, long toOrdinal, int[] expectedIds,
+			List<byte[]> target) {
+		long start = System.nanoTime();
+		long bytesRead = 0;
+		int rows = 0;
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			String query = "SELECT nId, data FROM " + tableName + " WHERE ord BETWEEN ? AND ? ORDER BY ord";
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "ordinalRange", query);
+			preparedStatement.setLong(1, fromOrdinal);
+			preparedStatement.setLong(2, toOrdinal);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				while (resultSet.next()) {
+					if (rows == expectedIds.length || resultSet.getInt("nId") != expectedIds[rows]) {
+						return false;
+					}
+					Blob blob = resultSet.getBlob("data");
+					byte[] bytes = blob.getBytes(1, (int) blob.length());
+					blob.free();
+					target.add(bytes);
+					rows++;
+					bytesRead += bytes.length;
+				}
+			}
+			Metrics.recordOperation(path, tableName, Metrics.Operation.READ_PAGE, start, rows, bytesRead);
+			return rows == expectedIds.length;
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.READ_PAGE, e);
+			return false;
+		} finally {
+			release(lease);
+		}
+	}
+
+	public PageCursor openCursor(String tableName, int startIndex, int pageSize) {
+		if (startIndex < 0 || pageSize <= 0) {
+			System.err.println("Invalid cursor: startIndex=" + startIndex + ", pageSize=" + pageSize);
+			return null;
+		}
+
+		long lastOrdinal = Long.MIN_VALUE;
+		if (startIndex > 0) {
+			RowIdIndex index = getRowIdIndex(tableName);
+			lastOrdinal = index != null && startIndex <= index.size() ? index.getOrdinal(startIndex - 1) : Long.MAX_VALUE;
+		}
+		return new PageCursor(this, tableName, lastOrdinal, pageSize);
+	}
+
+	public long readPage(String tableName, long afterOrdinal, int limit, List<byte[]> target) {
+		long start = System.nanoTime();
+		long lastOrdinal = afterOrdinal;
+		int rows = 0;
+		long bytesRead = 0;
+
+		ConnectionPool.Lease lease = null;
+		try {
+			lease = acquire();
+			String query = "SELECT ord, data FROM " + tableName + " WHERE ord > ? ORDER BY ord FETCH FIRST ? ROWS ONLY";
+			PreparedStatement preparedStatement = lease.getStatementCache().prepare(tableName, "page", query);
+			preparedStatement.setLong(1, afterOrdinal);
+			preparedStatement.setInt(2, limit);
+
+			ResultSet resultSet = preparedStatement.executeQuery();
+
+			while (resultSet.next()) {
+				lastOrdinal = resultSet.getLong("ord");
+				Blob blob = resultSet.getBlob("data");
+				byte[] bytes = blob.getBytes(1, (int) blob.length());
+				target.add(bytes);
+				rows++;
+				bytesRead += bytes.length;
+			}
+
+			resultSet.close();
+			Metrics.recordOperation(path, tableName, Metrics.Operation.READ_PAGE, start, rows, bytesRead);
+		} catch (SQLException e) {
+			Metrics.recordError(path, tableName, Metrics.Operation.READ_PAGE, e);
+		} finally {
+			release(lease);
+		}
+
+		return lastOrdinal;
+	}
+
+	public int getTableSize(String tableName) {
+	    if (!isTableExist(tableName)) {
+	        System.err.println("Table " + tableName + " does not exist!");
+	        return -1;
+	    }
+	    RowIdIndex index = getRowIdIndex(tableName);
+	    if (index != null) {
+	        return index.size();
+	    }
+	    long start = System.nanoTime();
+	    ConnectionPool.Lease lease = null;
+	    try {
+	        lease = acquire();
+	        String countQuery = "SELECT COUNT(*) as total FROM " + tableName;
+	        int totalRows = -1;
+	        try (Statement statement = lease.getConnection().createStatement();
+	                ResultSet countResult = statement.executeQuery(countQuery)) {
+	            if (countResult.next()) {
+	                totalRows = countResult.getInt("total");
+	            }
+	        }
+	        Metrics.recordOperation(path, tableName, Metrics.Operation.COUNT, start, 0, 0);
+	        return totalRows;
+	    } catch (SQLException e) {
+	        Metrics.recordError(path, tableName, Metrics.Operation.COUNT, e);
+	        return -1;
+	    } finally {
+	        release(lease);
+	    }
+	}
+	
+	
+	
+
+	public String getPath() {
+		return path;
+	}
+
+	public Connection getConnection() {
+		return pool.getPrimaryConnection();
+	}
+
+	public ConnectionPool getConnectionPool() {
+		return pool;
+	}
+
+	public long getStatementCacheHits() {
+		return pool.getStatementCacheHits();
+	}
+
+	public long getStatementCacheMisses() {
+		return pool.getStatementCacheMisses();
+	}
+
+	public void close() {
+		if (sharedKey != null) {
+			synchronized (SHARED) {
+				if (references == 0 || --references > 0) {
+					return;
+				}
+				SHARED.remove(sharedKey, this);
+			}
+		}
+		pool.close();
+	}
+
+	public boolean isShared() {
+		return sharedKey != null;
+	}
+
+	public int getReferenceCount() {
+		synchronized (SHARED) {
+			return references;
+		}
+	}
+
+	private boolean connect(String url, int poolSize) {
+		schemaKey = path;
+		try {
+			pool = new ConnectionPool(url, poolSize, STATEMENT_CACHE_SIZE);
+			ConnectionPool.Lease lease = pool.acquire();
+			try {
+				schemaKey = path + "/" + lease.getConnection().getSchema();
+			} finally {
+				pool.release(lease);
+			}
+		} catch (SQLException e) {
+			Metrics.recordError(path, null, null, e);
+			return false;
+		}
+		return createChangeTracking();
+	}
+
+	interface RowWrite {
+
+		boolean apply(ConnectionPool.Lease lease) throws SQLException;
+	}
+
+	private static class TransactionState {
+
+		private final ConnectionPool.Lease lease;
+		private final Set<String> tables = new HashSet<>();
+		private final List<ReentrantLock> locks = new ArrayList<>();
+		private final List<Runnable> rollbackActions = new ArrayList<>();
+		private int depth;
+		private boolean rollbackOnly;
+
+		private TransactionState(ConnectionPool.Lease lease) {
+			this.lease = lease;
 		}
 	}
 
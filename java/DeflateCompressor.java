@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class DeflateCompressor implements Compressor {
+
+    public static final int ID = 0;
+
+    private static final Map<Integer, byte[]> DICTIONARIES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final int level;
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    private final ThreadLocal<Deflater> deflaters;
+
+    public DeflateCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    public DeflateCompressor(int level) {
+        this(level, null);
+    }
+
+    public DeflateCompressor(int level, byte[] dictionary) {
+        this.level = level;
+        this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+        this.dictionaryId = this.dictionary == null ? 0 : registerDictionary(this.dictionary);
+    }
+
+    // The id is the dictionary's Adler32, which Deflate writes into every stream that uses it
+    public static int registerDictionary(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary, 0, dictionary.length);
+        int id = (int) adler.getValue();
+        DICTIONARIES.put(id, dictionary.clone());
+        return id;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public byte[] getDictionary() {
+        return dictionary == null ? null : dictionary.clone();
+    }
+
+    public int getDictionaryId() {
+        return dictionaryId;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, data.length + (data.length >> 3) + 16)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        byte[] result = new byte[originalLength];
+        int count = 0;
+        try {
+            while (count < originalLength && !inflater.finished()) {
+                int n = inflater.inflate(result, count, originalLength - count);
+                if (n == 0 && inflater.needsDictionary()) {
+                    byte[] dict = DICTIONARIES.get(inflater.getAdler());
+                    if (dict == null) {
+                        throw new IOException("Unknown compression dictionary: " + Integer.toHexString(inflater.getAdler()));
+                    }
+                    inflater.setDictionary(dict);
+                } else if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                count += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed row", e);
+        }
+        if (count != originalLength) {
+            throw new IOException("Compressed row is truncated: " + count + " of " + originalLength + " bytes");
+        }
+        return result;
+    }
+}
@@ -561,7 +561,9 @@ public class DerbyDatabaseViewer extends JFrame {
             columns.close();
             
             Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM \"" + tableName + "\"");
+            String order = currentTableColumns.contains("ORD") ? " ORDER BY ORD"
+                    : currentTableColumns.contains("NID") ? " ORDER BY NID" : "";
+            ResultSet rs = stmt.executeQuery("SELECT * FROM \"" + tableName + "\"" + order);
             
             ResultSetMetaData rsMetaData = rs.getMetaData();
             int columnCount = rsMetaData.getColumnCount();
@@ -787,6 +789,11 @@ public class DerbyDatabaseViewer extends JFrame {
         } catch (Exception e) {
         }
         
+        try {
+            return Codecs.decode(bytes);
+        } catch (Exception e) {
+        }
+        
         try {
             JsonNode jsonNode = objectMapper.readTree(bytes);
             return jsonNode.toString();
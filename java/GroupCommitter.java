@@ -0,0 +1,171 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class GroupCommitter {
+
+    private final Database database;
+    private final ConnectionPool pool;
+    private List<Pending> queue = new ArrayList<>();
+    private boolean leaderActive;
+    private long commits;
+    private long writes;
+
+    public GroupCommitter(Database database, ConnectionPool pool) {
+        this.database = database;
+        this.pool = pool;
+    }
+
+    public boolean submit(String tableName, Database.RowWrite write) {
+        Pending pending = new Pending(tableName, write);
+        List<Pending> batch;
+        // The write is already queued, so keep waiting and restore the interrupt once it has run;
+        // restored earlier, it would make a follower that becomes leader fail to lock its tables
+        boolean interrupted = false;
+
+        try {
+            synchronized (this) {
+                queue.add(pending);
+                while (leaderActive && !pending.done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (pending.done) {
+                    return pending.result;
+                }
+                // wait() may return normally with an interrupt still pending, or the caller
+                // came in interrupted; the leader must not carry it into lockTable
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+                leaderActive = true;
+                batch = queue;
+                queue = new ArrayList<>();
+            }
+
+            try {
+                execute(batch);
+            } finally {
+                synchronized (this) {
+                    for (Pending p : batch) {
+                        p.done = true;
+                    }
+                    leaderActive = false;
+                    notifyAll();
+                }
+            }
+            return pending.result;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized long getCommitCount() {
+        return commits;
+    }
+
+    public synchronized long getWriteCount() {
+        return writes;
+    }
+
+    private void execute(List<Pending> batch) {
+        TreeSet<String> tables = new TreeSet<>();
+        for (Pending p : batch) {
+            tables.add(p.tableName.toUpperCase());
+        }
+
+        List<ReentrantLock> locks = new ArrayList<>();
+        ConnectionPool.Lease lease = null;
+        try {
+            for (String tableName : tables) {
+                locks.add(database.lockTable(tableName));
+            }
+            lease = pool.acquire();
+            Connection connection = lease.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                for (Pending p : batch) {
+                    p.result = p.write.apply(lease);
+                }
+                connection.commit();
+                synchronized (this) {
+                    commits++;
+                    writes += batch.size();
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                invalidateRowIdIndexes(tables);
+                connection.setAutoCommit(true);
+                executeSeparately(batch, lease);
+            } catch (Throwable e) {
+                // Rolled back here: turning autocommit back on below would commit the writes made so far
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                invalidateRowIdIndexes(tables);
+                throw e;
+            }
+        } catch (SQLException | RuntimeException e) {
+            Metrics.recordError(database.getPath(), null, null, e);
+            for (Pending p : batch) {
+                p.result = false;
+            }
+        } finally {
+            if (lease != null) {
+                try {
+                    lease.getConnection().setAutoCommit(true);
+                } catch (SQLException e) {
+                    Metrics.recordError(database.getPath(), null, null, e);
+                }
+                pool.release(lease);
+            }
+            for (ReentrantLock lock : locks) {
+                database.unlockTable(lock);
+            }
+        }
+    }
+
+    private void invalidateRowIdIndexes(TreeSet<String> tables) {
+        for (String tableName : tables) {
+            database.invalidateRowIdIndex(tableName);
+        }
+    }
+
+    private void executeSeparately(List<Pending> batch, ConnectionPool.Lease lease) {
+        for (Pending p : batch) {
+            try {
+                p.result = p.write.apply(lease);
+            } catch (SQLException e) {
+                Metrics.recordError(database.getPath(), p.tableName, null, e);
+                p.result = false;
+            }
+        }
+        synchronized (this) {
+            commits += batch.size();
+            writes += batch.size();
+        }
+    }
+
+    private static class Pending {
+
+        private final String tableName;
+        private final Database.RowWrite write;
+        private boolean result;
+        private boolean done;
+
+        private Pending(String tableName, Database.RowWrite write) {
+            this.tableName = tableName;
+            this.write = write;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+public class HeapCache<E> extends ArrayList<E> implements ObjectCache<E> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void reload(TableManager tableManager) {
+        clear();
+        if (tableManager.getLoadParallelism() > 1) {
+            for (Object obj : tableManager.getAll()) {
+                add((E) obj);
+            }
+            return;
+        }
+        try (Stream<Object> objects = tableManager.stream()) {
+            objects.forEach(obj -> add((E) obj));
+        }
+    }
+}
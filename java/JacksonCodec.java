@@ -0,0 +1,46 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JacksonCodec implements Codec {
+
+    public static final int ID = 2;
+
+    private final ObjectMapper objectMapper;
+
+    public JacksonCodec() {
+        this(new ObjectMapper());
+    }
+
+    public JacksonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper.copy();
+        this.objectMapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        this.objectMapper.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public void encode(Object obj, OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeUTF(obj.getClass().getName());
+        objectMapper.writeValue((OutputStream) dos, obj);
+        dos.flush();
+    }
+
+    @Override
+    public Object decode(InputStream in) throws IOException, ClassNotFoundException {
+        DataInputStream dis = new DataInputStream(in);
+        Class<?> type = Class.forName(dis.readUTF());
+        return objectMapper.readValue((InputStream) dis, type);
+    }
+}
@@ -0,0 +1,64 @@
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.function.Function;
+
+public class KeyIndex {
+
+    private static final String PREFIX = "K_";
+
+    private final String name;
+    private final String column;
+    private final String sqlType;
+    private final Function<Object, ?> extractor;
+
+    public KeyIndex(String name, Class<?> keyType, Function<Object, ?> extractor) {
+        if (!name.matches("[A-Za-z][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Index name must be a plain identifier: " + name);
+        }
+        this.name = name;
+        this.column = PREFIX + name.toUpperCase();
+        this.sqlType = sqlType(keyType);
+        this.extractor = extractor;
+    }
+
+    public static String sqlType(Class<?> keyType) {
+        if (keyType == String.class || keyType == Character.class || keyType.isEnum()) {
+            return "VARCHAR(512)";
+        }
+        if (keyType == Integer.class || keyType == Short.class || keyType == Byte.class) {
+            return "INTEGER";
+        }
+        if (keyType == Long.class) {
+            return "BIGINT";
+        }
+        if (keyType == Double.class || keyType == Float.class) {
+            return "DOUBLE";
+        }
+        if (keyType == Boolean.class) {
+            return "BOOLEAN";
+        }
+        if (keyType == BigDecimal.class) {
+            return "DECIMAL(31, 8)";
+        }
+        if (Date.class.isAssignableFrom(keyType)) {
+            return "TIMESTAMP";
+        }
+        throw new IllegalArgumentException("Unsupported index key type: " + keyType.getName());
+    }
+
+    public Object extract(Object obj) {
+        return obj == null ? null : extractor.apply(obj);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getSqlType() {
+        return sqlType;
+    }
+}
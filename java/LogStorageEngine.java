@@ -0,0 +1,847 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only storage on memory-mapped segment files, one directory per table.
+ * Every write appends a record; an in-memory index maps list positions to record
+ * locations. List order is ordinal order, as in the Derby tables, so positional
+ * inserts write one record. Superseded records are reclaimed by compaction, which
+ * runs on a background thread and also renumbers the ordinals.
+ *
+ * Records are: type (1), id (4), ordinal (8), length (4), CRC32 (4), data.
+ * A compaction writes BEGIN, the live records and COMMIT into new segments; on
+ * recovery, segments before a committed compaction are dropped and an unfinished
+ * compaction is discarded. Writes reach the page cache at once and the disk when
+ * the OS flushes them, on sync(), on close(), or on every write with setSyncWrites.
+ * A change set is not atomic across a crash.
+ */
+public class LogStorageEngine implements StorageEngine {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final byte END = 0;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte BEGIN = 3;
+    private static final byte COMMIT = 4;
+    private static final int HEADER_SIZE = 21;
+    private static final long ORDINAL_GAP = 1L << 20;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long COMPACTION_INTERVAL_MILLIS = 1000;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService compactor;
+    private volatile double compactionRatio = 0.5;
+    private volatile boolean syncWrites;
+
+    public LogStorageEngine(String directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public LogStorageEngine(String directory, int segmentSize) {
+        if (segmentSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            Metrics.recordError(getPath(), null, null, e);
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "serialdb-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, COMPACTION_INTERVAL_MILLIS,
+                COMPACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getPath() {
+        return directory.toString();
+    }
+
+    @Override
+    public boolean isTableExist(String tableName) {
+        return tables.containsKey(tableName.toUpperCase()) || Files.isDirectory(tableDirectory(tableName));
+    }
+
+    @Override
+    public boolean createTable(String tableName) {
+        if (isTableExist(tableName)) {
+            Metrics.recordError(getPath(), tableName, Metrics.Operation.CREATE_TABLE,
+                    new FileAlreadyExistsException(tableDirectory(tableName).toString()));
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(tableDirectory(tableName));
+            Metrics.recordOperation(getPath(), tableName, Metrics.Operation.CREATE_TABLE, start, 0, 0);
+            return true;
+        } catch (IOException e) {
+            Metrics.recordError(getPath(), tableName, Metrics.Operation.CREATE_TABLE, e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean deleteTable(String tableName) {
+        if (!isTableExist(tableName)) {
+            Metrics.recordError(getPath(), tableName, Metrics.Operation.DELETE_TABLE,
+                    new NoSuchFileException(tableDirectory(tableName).toString()));
+            return false;
+        }
+        long start = System.nanoTime();
+        Table table = tables.remove(tableName.toUpperCase());
+        try {
+            if (table != null) {
+                table.lock.writeLock().lock();
+                try {
+                    table.closeSegments();
+                } finally {
+                    table.lock.writeLock().unlock();
+                }
+            }
+            Path tableDirectory = tableDirectory(tableName);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(tableDirectory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(tableDirectory);
+            Metrics.recordOperation(getPath(), tableName, Metrics.Operation.DELETE_TABLE, start, 0, 0);
+            return true;
+        } catch (IOException e) {
+            Metrics.recordError(getPath(), tableName, Metrics.Operation.DELETE_TABLE, e);
+            return false;
+        }
+    }
+
+    @Override
+    public int getTableSize(String tableName) {
+        Table table = table(tableName);
+        if (table == null) {
+            return -1;
+        }
+        table.lock.readLock().lock();
+        try {
+            return table.size;
+        } finally {
+            table.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getIdByIndex(String tableName, int index) {
+        Table table = table(tableName);
+        if (table == null) {
+            return -1;
+        }
+        table.lock.readLock().lock();
+        try {
+            return index >= 0 && index < table.size ? table.ids[index] : -1;
+        } finally {
+            table.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean writeData(String tableName, byte[] bytes) {
+        return write(tableName, Metrics.Operation.WRITE, 1, bytes.length, table -> {
+            table.insert(table.size, table.nextId++, bytes);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean writeDataBatch(String tableName, List<byte[]> rows, int batchSize) {
+        if (batchSize <= 0) {
+            Metrics.recordError(getPath(), tableName, Metrics.Operation.WRITE_BATCH,
+                    new IllegalArgumentException("Invalid batch size: " + batchSize));
+            return false;
+        }
+        long bytes = 0;
+        for (byte[] row : rows) {
+            bytes += row.length;
+        }
+        return write(tableName, Metrics.Operation.WRITE_BATCH, rows.size(), bytes, table -> {
+            for (byte[] row : rows) {
+                table.insert(table.size, table.nextId++, row);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public boolean insertData(String tableName, int index, byte[] bytes) {
+        return write(tableName, Metrics.Operation.WRITE, 1, bytes.length, table -> {
+            if (index < 0 || index > table.size) {
+                throw new IndexOutOfBoundsException("Invalid index: " + index + " for table " + tableName);
+            }
+            table.insert(index, table.nextId++, bytes);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean overwriteDataByIndex(String tableName, int index, byte[] bytes) {
+        return write(tableName, Metrics.Operation.UPDATE, 1, bytes.length, table -> {
+            if (index < 0 || index >= table.size) {
+                throw new IndexOutOfBoundsException("Invalid index: " + index + " for table " + tableName);
+            }
+            table.update(index, bytes);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean deleteDataByIndex(String tableName, int index) {
+        return write(tableName, Metrics.Operation.DELETE, 1, 0, table -> {
+            if (index < 0 || index >= table.size) {
+                throw new IndexOutOfBoundsException("Invalid index: " + index + " for table " + tableName);
+            }
+            table.delete(index);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean writeChanges(String tableName, boolean deleteAll, int[] deletedIds, int[] updatedIds,
+            List<byte[]> updatedRows, List<byte[]> insertedRows, int[] insertedPositions, int batchSize) {
+        if (batchSize <= 0 || updatedIds.length != updatedRows.size()
+                || (deleteAll && (deletedIds.length > 0 || updatedIds.length > 0))
+                || (insertedPositions != null && insertedPositions.length != insertedRows.size())) {
+            Metrics.recordError(getPath(), tableName, Metrics.Operation.WRITE_CHANGES,
+                    new IllegalArgumentException("Invalid change set for table " + tableName));
+            return false;
+        }
+        long bytes = 0;
+        for (byte[] row : updatedRows) {
+            bytes += row.length;
+        }
+        for (byte[] row : insertedRows) {
+            bytes += row.length;
+        }
+        int rows = deletedIds.length + updatedIds.length + insertedRows.size();
+        return write(tableName, Metrics.Operation.WRITE_CHANGES, rows, bytes, table -> {
+            // Every id is resolved before anything is written, so a missing one leaves the table untouched
+            Map<Integer, Integer> positions = table.positionsById();
+            int[] removed = resolvePositions(tableName, positions, deletedIds);
+            int[] updated = resolvePositions(tableName, positions, updatedIds);
+            for (int i = 0; i < updated.length; i++) {
+                table.update(updated[i], updatedRows.get(i));
+            }
+            if (deleteAll) {
+                for (int i = table.size - 1; i >= 0; i--) {
+                    table.delete(i);
+                }
+            }
+            Arrays.sort(removed);
+            for (int i = removed.length - 1; i >= 0; i--) {
+                table.delete(removed[i]);
+            }
+            for (int i = 0; i < insertedRows.size(); i++) {
+                int position = insertedPositions == null ? table.size : Math.min(insertedPositions[i], table.size);
+                table.insert(position, table.nextId++, insertedRows.get(i));
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public List<byte[]> readDataInRange(String tableName, int startIndex, int endIndex) {
+        Table table = table(tableName);
+        if (table == null) {
+            return Collections.emptyList();
+        }
+        if (startIndex < 0 || endIndex < startIndex) {
+            Metrics.recordError(getPath(), tableName, Metrics.Operation.READ_PAGE, new IllegalArgumentException(
+                    "Invalid index range: startIndex=" + startIndex + ", endIndex=" + endIndex));
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        long bytes = 0;
+        List<byte[]> result;
+        table.lock.readLock().lock();
+        try {
+            int end = Math.min(endIndex, table.size - 1);
+            result = new ArrayList<>(Math.max(0, end - startIndex + 1));
+            for (int i = startIndex; i <= end; i++) {
+                byte[] row = table.read(table.locations[i], table.lengths[i]);
+                result.add(row);
+                bytes += row.length;
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        Metrics.recordOperation(getPath(), tableName, Metrics.Operation.READ_PAGE, start, result.size(), bytes);
+        return result;
+    }
+
+    // Iterates a snapshot of the record locations; segments dropped by a later
+    // compaction stay mapped until the scan lets go of them
+    @Override
+    public RowScan iterateData(String tableName) {
+        Table table = table(tableName);
+        if (table == null) {
+            return new LocationScan(null, new long[0], new int[0]);
+        }
+        table.lock.readLock().lock();
+        try {
+            return new LocationScan(new HashMap<>(table.segments), Arrays.copyOf(table.locations, table.size),
+                    Arrays.copyOf(table.lengths, table.size));
+        } finally {
+            table.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Table table : tables.values()) {
+            table.lock.writeLock().lock();
+            try {
+                table.closeSegments();
+            } finally {
+                table.lock.writeLock().unlock();
+            }
+        }
+        tables.clear();
+    }
+
+    public void sync() {
+        for (Table table : tables.values()) {
+            table.lock.writeLock().lock();
+            try {
+                for (Segment segment : table.segments.values()) {
+                    segment.buffer.force();
+                }
+            } finally {
+                table.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public boolean compact(String tableName) {
+        Table table = table(tableName);
+        if (table == null) {
+            return false;
+        }
+        table.lock.writeLock().lock();
+        try {
+            table.compact();
+            return true;
+        } catch (IOException e) {
+            Metrics.recordError(getPath(), tableName, null, e);
+            return false;
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+    }
+
+    public long getGarbageBytes(String tableName) {
+        Table table = table(tableName);
+        if (table == null) {
+            return 0;
+        }
+        table.lock.readLock().lock();
+        try {
+            return table.writtenBytes - table.liveBytes;
+        } finally {
+            table.lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentCount(String tableName) {
+        Table table = table(tableName);
+        if (table == null) {
+            return 0;
+        }
+        table.lock.readLock().lock();
+        try {
+            return table.segments.size();
+        } finally {
+            table.lock.readLock().unlock();
+        }
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public double getCompactionRatio() {
+        return compactionRatio;
+    }
+
+    // Compact once this share of the written bytes is garbage (and at least one segment's worth)
+    public void setCompactionRatio(double compactionRatio) {
+        if (compactionRatio <= 0 || compactionRatio >= 1) {
+            throw new IllegalArgumentException("Compaction ratio must be between 0 and 1: " + compactionRatio);
+        }
+        this.compactionRatio = compactionRatio;
+    }
+
+    public boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    private void compactIfNeeded() {
+        for (Table table : tables.values()) {
+            table.lock.writeLock().lock();
+            try {
+                long garbage = table.writtenBytes - table.liveBytes;
+                if (garbage >= segmentSize && garbage > table.writtenBytes * compactionRatio) {
+                    table.compact();
+                }
+            } catch (IOException | RuntimeException e) {
+                Metrics.recordError(getPath(), table.name, null, e);
+            } finally {
+                table.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private boolean write(String tableName, Metrics.Operation operation, int rows, long bytes, TableWrite write) {
+        Table table = table(tableName);
+        if (table == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        table.lock.writeLock().lock();
+        try {
+            if (!write.apply(table)) {
+                return false;
+            }
+            if (syncWrites && table.active != null) {
+                table.active.buffer.force();
+            }
+            Metrics.recordOperation(getPath(), tableName, operation, start, rows, bytes);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Metrics.recordError(getPath(), tableName, operation, e);
+            return false;
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+    }
+
+    private Table table(String tableName) {
+        String name = tableName.toUpperCase();
+        Table table = tables.get(name);
+        if (table != null) {
+            return table;
+        }
+        if (!Files.isDirectory(tableDirectory(name))) {
+            Metrics.recordError(getPath(), tableName, null, new NoSuchFileException(tableDirectory(name).toString()));
+            return null;
+        }
+        synchronized (tables) {
+            table = tables.get(name);
+            if (table == null) {
+                try {
+                    table = new Table(name, tableDirectory(name));
+                    table.recover();
+                } catch (IOException e) {
+                    Metrics.recordError(getPath(), name, Metrics.Operation.LOAD_INDEX, e);
+                    return null;
+                }
+                tables.put(name, table);
+            }
+            return table;
+        }
+    }
+
+    private static int[] resolvePositions(String tableName, Map<Integer, Integer> positions, int[] ids) {
+        int[] result = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            Integer position = positions.get(ids[i]);
+            if (position == null) {
+                throw new IllegalArgumentException("Row " + ids[i] + " does not exist in table " + tableName);
+            }
+            result[i] = position;
+        }
+        return result;
+    }
+
+    private Path tableDirectory(String tableName) {
+        return directory.resolve(tableName.toUpperCase());
+    }
+
+    interface TableWrite {
+
+        boolean apply(Table table) throws IOException;
+    }
+
+    private static final class Segment {
+
+        final int number;
+        final Path file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int position;
+
+        Segment(int number, Path file, int capacity) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final class Table {
+
+        final String name;
+        final Path directory;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final TreeMap<Integer, Segment> segments = new TreeMap<>();
+        Segment active;
+        int[] ids = new int[16];
+        long[] ordinals = new long[16];
+        long[] locations = new long[16];
+        int[] lengths = new int[16];
+        int size;
+        int nextId = 1;
+        long writtenBytes;
+        long liveBytes;
+
+        Table(String name, Path directory) {
+            this.name = name;
+            this.directory = directory;
+        }
+
+        void insert(int position, int id, byte[] bytes) throws IOException {
+            long ordinal = ordinalAt(position);
+            long location = append(PUT, id, ordinal, bytes);
+            if (size == ids.length) {
+                int capacity = Math.max(16, size + (size >> 1));
+                ids = Arrays.copyOf(ids, capacity);
+                ordinals = Arrays.copyOf(ordinals, capacity);
+                locations = Arrays.copyOf(locations, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            System.arraycopy(ordinals, position, ordinals, position + 1, size - position);
+            System.arraycopy(locations, position, locations, position + 1, size - position);
+            System.arraycopy(lengths, position, lengths, position + 1, size - position);
+            ids[position] = id;
+            ordinals[position] = ordinal;
+            locations[position] = location;
+            lengths[position] = bytes.length;
+            size++;
+            liveBytes += HEADER_SIZE + bytes.length;
+        }
+
+        void update(int position, byte[] bytes) throws IOException {
+            long location = append(PUT, ids[position], ordinals[position], bytes);
+            liveBytes += bytes.length - lengths[position];
+            locations[position] = location;
+            lengths[position] = bytes.length;
+        }
+
+        void delete(int position) throws IOException {
+            append(DELETE, ids[position], ordinals[position], new byte[0]);
+            liveBytes -= HEADER_SIZE + lengths[position];
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            System.arraycopy(ordinals, position + 1, ordinals, position, size - position - 1);
+            System.arraycopy(locations, position + 1, locations, position, size - position - 1);
+            System.arraycopy(lengths, position + 1, lengths, position, size - position - 1);
+            size--;
+        }
+
+        Map<Integer, Integer> positionsById() {
+            Map<Integer, Integer> positions = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                positions.put(ids[i], i);
+            }
+            return positions;
+        }
+
+        // Midpoint between the neighbours; a compaction renumbers when they are adjacent
+        long ordinalAt(int position) throws IOException {
+            if (size == 0) {
+                return ORDINAL_GAP;
+            }
+            if (position == size) {
+                return ordinals[size - 1] + ORDINAL_GAP;
+            }
+            long lower = position == 0 ? ordinals[0] - ORDINAL_GAP : ordinals[position - 1];
+            long upper = ordinals[position];
+            if (upper - lower < 2) {
+                compact();
+                lower = position == 0 ? ordinals[0] - ORDINAL_GAP : ordinals[position - 1];
+                upper = ordinals[position];
+            }
+            return lower + (upper - lower) / 2;
+        }
+
+        byte[] read(long location, int length) {
+            return readRecord(segments, location, length);
+        }
+
+        long append(byte type, int id, long ordinal, byte[] bytes) throws IOException {
+            int recordSize = HEADER_SIZE + bytes.length;
+            if (active == null || active.capacity() - active.position < recordSize) {
+                int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+                active = new Segment(number, directory.resolve(String.format("%010d", number) + SEGMENT_SUFFIX),
+                        Math.max(segmentSize, recordSize));
+                segments.put(number, active);
+            }
+
+            CRC32 crc = new CRC32();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(type).putInt(id).putLong(ordinal).putInt(bytes.length);
+            crc.update(header.array(), 0, 17);
+            crc.update(bytes, 0, bytes.length);
+            header.putInt((int) crc.getValue());
+
+            ByteBuffer target = active.buffer.duplicate();
+            target.position(active.position);
+            target.put(header.array());
+            target.put(bytes);
+            long location = ((long) active.number << 32) | active.position;
+            active.position += recordSize;
+            writtenBytes += recordSize;
+            return location;
+        }
+
+        // Rewrites the live rows in list order with fresh ordinals, then drops the old segments
+        void compact() throws IOException {
+            long start = System.nanoTime();
+            List<Segment> old = new ArrayList<>(segments.values());
+            Map<Integer, Segment> oldSegments = new HashMap<>(segments);
+            active = null;
+            int first = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            writtenBytes = 0;
+            liveBytes = 0;
+            append(BEGIN, first, 0, new byte[0]);
+            for (int i = 0; i < size; i++) {
+                byte[] bytes = readRecord(oldSegments, locations[i], lengths[i]);
+                ordinals[i] = (i + 1) * ORDINAL_GAP;
+                locations[i] = append(PUT, ids[i], ordinals[i], bytes);
+                liveBytes += HEADER_SIZE + bytes.length;
+            }
+            append(COMMIT, first, 0, new byte[0]);
+            for (Segment segment : segments.tailMap(first).values()) {
+                segment.buffer.force();
+            }
+            for (Segment segment : old) {
+                segments.remove(segment.number);
+                segment.close();
+                Files.deleteIfExists(segment.file);
+            }
+            Metrics.recordOperation(getPath(), name, Metrics.Operation.WRITE_CHANGES, start, size, liveBytes);
+        }
+
+        void recover() throws IOException {
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+            Collections.sort(files);
+
+            Map<Integer, long[]> live = new HashMap<>();
+            Map<Integer, long[]> pending = null;
+            int pendingFirst = -1;
+            int committedFirst = -1;
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                int number = Integer.parseInt(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+                Segment segment = new Segment(number, file, 0);
+                segments.put(number, segment);
+                ByteBuffer buffer = segment.buffer.duplicate();
+                int position = 0;
+                while (position + HEADER_SIZE <= segment.capacity()) {
+                    buffer.position(position);
+                    byte type = buffer.get();
+                    int id = buffer.getInt();
+                    long ordinal = buffer.getLong();
+                    int length = buffer.getInt();
+                    int checksum = buffer.getInt();
+                    if (type < PUT || type > COMMIT || length < 0
+                            || length > segment.capacity() - position - HEADER_SIZE) {
+                        break;
+                    }
+                    byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    CRC32 crc = new CRC32();
+                    byte[] header = new byte[17];
+                    buffer.position(position);
+                    buffer.get(header);
+                    crc.update(header, 0, header.length);
+                    crc.update(bytes, 0, bytes.length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+
+                    Map<Integer, long[]> target = pending != null ? pending : live;
+                    if (type == PUT) {
+                        target.put(id, new long[] {ordinal, ((long) number << 32) | position, length});
+                        nextId = Math.max(nextId, id + 1);
+                    } else if (type == DELETE) {
+                        target.remove(id);
+                    } else if (type == BEGIN) {
+                        pending = new HashMap<>();
+                        pendingFirst = id;
+                    } else if (pending != null && id == pendingFirst) {
+                        live = pending;
+                        pending = null;
+                        committedFirst = id;
+                    }
+                    position += HEADER_SIZE + length;
+                }
+                segment.position = position;
+                writtenBytes += position;
+                // Clear a torn tail so that later appends are not followed by stale bytes
+                for (int i = position; i < segment.capacity() && i < position + HEADER_SIZE; i++) {
+                    if (segment.buffer.get(i) != END) {
+                        for (int j = position; j < segment.capacity(); j++) {
+                            segment.buffer.put(j, END);
+                        }
+                        break;
+                    }
+                }
+            }
+
+            if (pending != null) {
+                // Unfinished compaction: its segments hold only copies of live rows
+                for (Segment segment : new ArrayList<>(segments.tailMap(pendingFirst).values())) {
+                    writtenBytes -= segment.position;
+                    segments.remove(segment.number);
+                    segment.close();
+                    Files.deleteIfExists(segment.file);
+                }
+            }
+            if (committedFirst > 0) {
+                // Left behind when the process stopped before a finished compaction deleted them
+                for (Segment segment : new ArrayList<>(segments.headMap(committedFirst).values())) {
+                    writtenBytes -= segment.position;
+                    segments.remove(segment.number);
+                    segment.close();
+                    Files.deleteIfExists(segment.file);
+                }
+            }
+            active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+
+            List<Map.Entry<Integer, long[]>> entries = new ArrayList<>(live.entrySet());
+            entries.sort((a, b) -> Long.compare(a.getValue()[0], b.getValue()[0]));
+            int capacity = Math.max(16, entries.size());
+            ids = new int[capacity];
+            ordinals = new long[capacity];
+            locations = new long[capacity];
+            lengths = new int[capacity];
+            size = 0;
+            liveBytes = 0;
+            for (Map.Entry<Integer, long[]> entry : entries) {
+                ids[size] = entry.getKey();
+                ordinals[size] = entry.getValue()[0];
+                locations[size] = entry.getValue()[1];
+                lengths[size] = (int) entry.getValue()[2];
+                liveBytes += HEADER_SIZE + lengths[size];
+                size++;
+            }
+        }
+
+        void closeSegments() {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            active = null;
+        }
+    }
+
+    private static byte[] readRecord(Map<Integer, Segment> segments, long location, int length) {
+        Segment segment = segments.get((int) (location >>> 32));
+        ByteBuffer source = segment.buffer.duplicate();
+        source.position((int) location + HEADER_SIZE);
+        byte[] bytes = new byte[length];
+        source.get(bytes);
+        return bytes;
+    }
+
+    private static final class LocationScan implements RowScan {
+
+        private final Map<Integer, Segment> segments;
+        private final long[] locations;
+        private final int[] lengths;
+        private int position;
+
+        LocationScan(Map<Integer, Segment> segments, long[] locations, int[] lengths) {
+            this.segments = segments;
+            this.locations = locations;
+            this.lengths = lengths;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < locations.length;
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            byte[] bytes = readRecord(segments, locations[position], lengths[position]);
+            position++;
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            position = locations.length;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Byte-oriented LZ77 in the LZ4 block layout: a token with literal and match length nibbles,
+ * the literals, then a 2-byte little-endian offset. No entropy stage, so it trades ratio
+ * for speed well above Deflate's BEST_SPEED on both sides.
+ */
+public class LzCompressor implements Compressor {
+
+    public static final int ID = 1;
+
+    private static final int MIN_MATCH = 4;
+    // A match never reaches the last bytes, so every block ends with literals
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int MAX_HASH_LOG = 12;
+    private static final int MIN_HASH_LOG = 8;
+    // Bytes without a match make the search step grow, so incompressible rows pass quickly
+    private static final int SKIP_STRENGTH = 6;
+    private static final ThreadLocal<int[]> TABLES = ThreadLocal.withInitial(() -> new int[1 << MAX_HASH_LOG]);
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        int length = data.length;
+        byte[] out = new byte[length + length / 255 + 16];
+        int op = 0;
+        int anchor = 0;
+        int matchLimit = length - LAST_LITERALS - MIN_MATCH;
+        if (matchLimit > 0) {
+            int hashLog = Math.min(MAX_HASH_LOG, Math.max(MIN_HASH_LOG, 32 - Integer.numberOfLeadingZeros(length)));
+            int shift = 32 - hashLog;
+            // Positions are stored plus one, so 0 means empty
+            int[] table = TABLES.get();
+            Arrays.fill(table, 0, 1 << hashLog, 0);
+            int ip = 0;
+            while (ip <= matchLimit) {
+                int sequence = readInt(data, ip);
+                int hash = hash(sequence, shift);
+                int ref = table[hash] - 1;
+                table[hash] = ip + 1;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(data, ref) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                    continue;
+                }
+                while (ip > anchor && ref > 0 && data[ip - 1] == data[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchEnd = ip + MIN_MATCH;
+                int matchRef = ref + MIN_MATCH;
+                int end = length - LAST_LITERALS;
+                while (matchEnd < end && data[matchEnd] == data[matchRef]) {
+                    matchEnd++;
+                    matchRef++;
+                }
+                op = writeSequence(out, op, data, anchor, ip - anchor, ip - ref, matchEnd - ip - MIN_MATCH);
+                if (matchEnd - 2 <= matchLimit) {
+                    table[hash(readInt(data, matchEnd - 2), shift)] = matchEnd - 1;
+                }
+                ip = matchEnd;
+                anchor = matchEnd;
+            }
+        }
+        op = writeLiterals(out, op, data, anchor, length - anchor, 0);
+        return Arrays.copyOf(out, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+        byte[] result = new byte[originalLength];
+        int ip = offset;
+        int end = offset + length;
+        int op = 0;
+        while (true) {
+            if (ip >= end) {
+                throw corrupted();
+            }
+            int token = data[ip++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    if (ip >= end || literalLength > originalLength) {
+                        throw corrupted();
+                    }
+                    b = data[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > end - ip || literalLength > originalLength - op) {
+                throw corrupted();
+            }
+            System.arraycopy(data, ip, result, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (op == originalLength) {
+                if (ip != end) {
+                    throw corrupted();
+                }
+                return result;
+            }
+
+            if (end - ip < 2) {
+                throw corrupted();
+            }
+            int matchOffset = (data[ip] & 0xFF) | (data[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end || matchLength > originalLength) {
+                        throw corrupted();
+                    }
+                    b = data[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchOffset == 0 || matchOffset > op || matchLength > originalLength - op) {
+                throw corrupted();
+            }
+            int from = op - matchOffset;
+            if (matchOffset >= matchLength) {
+                System.arraycopy(result, from, result, op, matchLength);
+                op += matchLength;
+            } else {
+                // Overlapping copy repeats the last matchOffset bytes
+                for (int i = 0; i < matchLength; i++) {
+                    result[op++] = result[from + i];
+                }
+            }
+        }
+    }
+
+    private static int writeSequence(byte[] out, int op, byte[] data, int literalStart, int literalLength,
+            int matchOffset, int matchLength) {
+        op = writeLiterals(out, op, data, literalStart, literalLength, Math.min(matchLength, 15));
+        out[op++] = (byte) matchOffset;
+        out[op++] = (byte) (matchOffset >>> 8);
+        if (matchLength >= 15) {
+            op = writeLengthBytes(out, op, matchLength - 15);
+        }
+        return op;
+    }
+
+    private static int writeLiterals(byte[] out, int op, byte[] data, int start, int literalLength, int matchNibble) {
+        out[op++] = (byte) (Math.min(literalLength, 15) << 4 | matchNibble);
+        if (literalLength >= 15) {
+            op = writeLengthBytes(out, op, literalLength - 15);
+        }
+        System.arraycopy(data, start, out, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLengthBytes(byte[] out, int op, int remaining) {
+        while (remaining >= 255) {
+            out[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        out[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence, int shift) {
+        return (sequence * -1640531535) >>> shift;
+    }
+
+    private static IOException corrupted() {
+        return new IOException("Corrupted compressed row");
+    }
+}
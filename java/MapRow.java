@@ -0,0 +1,24 @@
+public class MapRow {
+
+    private final int id;
+    private final byte[] key;
+    private final byte[] data;
+
+    public MapRow(int id, byte[] key, byte[] data) {
+        this.id = id;
+        this.key = key;
+        this.data = data;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,145 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public final class Metrics {
+
+    public enum Operation {
+        CREATE_TABLE(true), DELETE_TABLE(true), WRITE(true), WRITE_BATCH(true), WRITE_CHANGES(true),
+        DELETE(true), UPDATE(true), READ(false), SCAN(false), READ_PAGE(false), FIND(false),
+        LOAD_INDEX(false), COUNT(false), LOAD(false);
+
+        private final boolean write;
+
+        Operation(boolean write) {
+            this.write = write;
+        }
+
+        public boolean isWrite() {
+            return write;
+        }
+    }
+
+    private static final String DOMAIN = "SerialDB";
+    private static final Logger LOGGER = Logger.getLogger(DOMAIN);
+
+    // Registered by default: logs errors to the SerialDB java.util.logging logger, which prints
+    // warnings to the console unless configured otherwise. Remove it to handle errors elsewhere.
+    public static final MetricsListener LOGGING_LISTENER = new MetricsListener() {
+        @Override
+        public void onError(String databasePath, String tableName, Operation operation, Throwable error) {
+            LOGGER.log(Level.WARNING, "Error in " + databasePath + (tableName != null ? ", table " + tableName : "")
+                    + (operation != null ? ", " + operation : ""), error);
+        }
+    };
+
+    private static final Map<String, TableMetrics> TABLES = new ConcurrentHashMap<>();
+    private static final List<MetricsListener> LISTENERS = new CopyOnWriteArrayList<>(
+            Collections.singletonList(LOGGING_LISTENER));
+    private static volatile boolean enabled = true;
+    private static volatile boolean jmxEnabled = true;
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    // Only affects tables seen after the call
+    public static void setJmxEnabled(boolean jmxEnabled) {
+        Metrics.jmxEnabled = jmxEnabled;
+    }
+
+    public static void addListener(MetricsListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(MetricsListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    public static TableMetrics get(String databasePath, String tableName) {
+        String key = databasePath + "/" + tableName.toUpperCase();
+        TableMetrics metrics = TABLES.get(key);
+        if (metrics == null) {
+            metrics = new TableMetrics(databasePath, tableName.toUpperCase());
+            TableMetrics existing = TABLES.putIfAbsent(key, metrics);
+            if (existing != null) {
+                return existing;
+            }
+            if (jmxEnabled) {
+                register(metrics);
+            }
+        }
+        return metrics;
+    }
+
+    public static List<TableMetrics> getAll() {
+        return new ArrayList<>(TABLES.values());
+    }
+
+    public static void recordOperation(String databasePath, String tableName, Operation operation, long startNanos,
+            int rows, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        get(databasePath, tableName).recordOperation(operation, nanos, rows, bytes);
+        for (MetricsListener listener : LISTENERS) {
+            listener.onOperation(databasePath, tableName, operation, nanos, rows, bytes);
+        }
+    }
+
+    static void recordSerialization(TableMetrics metrics, boolean encode, long startNanos, int bytes) {
+        if (!enabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        metrics.recordSerialization(encode, nanos);
+        for (MetricsListener listener : LISTENERS) {
+            listener.onSerialization(metrics.getDatabasePath(), metrics.getTableName(), encode, nanos, bytes);
+        }
+    }
+
+    public static void recordError(String databasePath, String tableName, Operation operation, Throwable error) {
+        if (tableName != null) {
+            get(databasePath, tableName).recordError();
+        }
+        notifyError(databasePath, tableName, operation, error);
+    }
+
+    private static void notifyError(String databasePath, String tableName, Operation operation, Throwable error) {
+        for (MetricsListener listener : LISTENERS) {
+            listener.onError(databasePath, tableName, operation, error);
+        }
+    }
+
+    private static void register(TableMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=Table,database=" + ObjectName.quote(metrics.getDatabasePath())
+                    + ",name=" + metrics.getTableName());
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            // Not a failed table operation, so the table's error count stays as it is
+            notifyError(metrics.getDatabasePath(), metrics.getTableName(), null, e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+public interface MetricsListener {
+
+    default void onOperation(String databasePath, String tableName, Metrics.Operation operation, long nanos,
+            int rows, long bytes) {
+    }
+
+    default void onSerialization(String databasePath, String tableName, boolean encode, long nanos, int bytes) {
+    }
+
+    default void onError(String databasePath, String tableName, Metrics.Operation operation, Throwable error) {
+    }
+}
@@ -0,0 +1,29 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public interface ObjectCache<E> extends List<E> {
+
+    void reload(TableManager tableManager);
+
+    // Called before an element changed in place is written back
+    default void markDirty(int index) {
+    }
+
+    // Rebuilds the list from kept positions (source >= 0) and new elements (changed.get(-1 - source))
+    default void patch(int[] sources, List<? extends E> changed) {
+        List<E> patched = new ArrayList<>(sources.length);
+        for (int source : sources) {
+            patched.add(source >= 0 ? get(source) : changed.get(-1 - source));
+        }
+        clear();
+        addAll(patched);
+    }
+
+    default long getHits() {
+        return 0;
+    }
+
+    default long getMisses() {
+        return 0;
+    }
+}
@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Map kept in a keyed table. A key is looked up by a 64-bit hash of its BINARY encoding and
+ * the rows under that hash are compared by equals() on the decoded key, so colliding keys are
+ * told apart. Keys that are equal must therefore encode to the same bytes: strings, boxed
+ * primitives, enums and value classes do, but a HashSet key or a class whose serialized form
+ * carries state that equals() ignores may be stored twice.
+ */
+public class ObjectMap<K extends Serializable, V extends Serializable> extends AbstractMap<K, V> {
+
+    private static final int DEFAULT_CACHE_SIZE = 1024;
+    private static final Codec KEY_CODEC = Codecs.BINARY;
+
+    private final TableManager tableManager;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LinkedHashMap<K, V> cache;
+    private volatile int cacheSize;
+    private long hits;
+    private long misses;
+
+    public ObjectMap(String tableName) {
+        this(tableName, Codecs.JAVA, DEFAULT_CACHE_SIZE);
+    }
+
+    public ObjectMap(String tableName, Codec codec) {
+        this(tableName, codec, DEFAULT_CACHE_SIZE);
+    }
+
+    public ObjectMap(String tableName, Codec codec, int cacheSize) {
+        this(checkCacheSize(cacheSize), new TableManager(tableName, codec, true));
+    }
+
+    // The database can be shared by several maps and tables; close() leaves it open
+    public ObjectMap(String tableName, Codec codec, int cacheSize, Database database) {
+        this(checkCacheSize(cacheSize), new TableManager(tableName, codec, database, true));
+    }
+
+    private ObjectMap(int cacheSize, TableManager tableManager) {
+        this.tableManager = tableManager;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > ObjectMap.this.cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return Math.max(0, tableManager.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        lock.readLock().lock();
+        try {
+            synchronized (cache) {
+                if (cache.containsKey(key)) {
+                    return true;
+                }
+            }
+            return findRow(key) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        lock.readLock().lock();
+        try {
+            synchronized (cache) {
+                if (cache.containsKey(key)) {
+                    hits++;
+                    return cache.get(key);
+                }
+                misses++;
+            }
+            MapRow row = findRow(key);
+            if (row == null) {
+                return null;
+            }
+            V value = (V) tableManager.byteToObject(row.getData());
+            cachePut((K) key, value);
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        lock.writeLock().lock();
+        try {
+            byte[] keyBytes = encodeKey(key);
+            MapRow row = findRow(key, keyBytes);
+            byte[] data = tableManager.objectToByte(value);
+            Database db = tableManager.getDatabase();
+            String tableName = tableManager.getTableName();
+
+            V oldValue = null;
+            boolean written;
+            if (row != null) {
+                oldValue = (V) tableManager.byteToObject(row.getData());
+                written = db.overwriteDataByTableId(tableName, row.getId(), data);
+            } else {
+                written = db.writeMapRow(tableName, hash(keyBytes), keyBytes, data);
+            }
+            if (!written) {
+                throw new IllegalStateException("Не удалось записать значение для ключа " + key);
+            }
+            cachePut(key, value);
+            return oldValue;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        lock.writeLock().lock();
+        try {
+            MapRow row = findRow(key);
+            synchronized (cache) {
+                cache.remove(key);
+            }
+            if (row == null) {
+                return null;
+            }
+            V oldValue = (V) tableManager.byteToObject(row.getData());
+            tableManager.getDatabase().deleteDataByTableId(tableManager.getTableName(), row.getId());
+            return oldValue;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            tableManager.getDatabase().deleteAllData(tableManager.getTableName());
+            synchronized (cache) {
+                cache.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A snapshot of the table; changes made through the set or its entries go to the map
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                List<MapRow> rows;
+                lock.readLock().lock();
+                try {
+                    rows = tableManager.getDatabase().readMapRows(tableManager.getTableName());
+                } finally {
+                    lock.readLock().unlock();
+                }
+                Iterator<MapRow> iterator = rows.iterator();
+                return new Iterator<Map.Entry<K, V>>() {
+                    private K lastKey;
+                    private boolean canRemove;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry<K, V> next() {
+                        MapRow row = iterator.next();
+                        lastKey = (K) decodeKey(row.getKey());
+                        canRemove = true;
+                        return new AbstractMap.SimpleEntry<K, V>(lastKey, (V) tableManager.byteToObject(row.getData())) {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            public V setValue(V value) {
+                                put(getKey(), value);
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!canRemove) {
+                            throw new IllegalStateException();
+                        }
+                        canRemove = false;
+                        ObjectMap.this.remove(lastKey);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ObjectMap.this.size();
+            }
+        };
+    }
+
+    public void close() {
+        tableManager.close();
+    }
+
+    public boolean dispose() {
+        lock.writeLock().lock();
+        try {
+            synchronized (cache) {
+                cache.clear();
+            }
+            return tableManager.dispose();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        checkCacheSize(cacheSize);
+        synchronized (cache) {
+            this.cacheSize = cacheSize;
+            Iterator<K> keys = cache.keySet().iterator();
+            while (cache.size() > cacheSize && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    public long getCacheHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    public TableManager getTableManager() {
+        return tableManager;
+    }
+
+    public String getTableName() {
+        return tableManager.getTableName();
+    }
+
+    private static int checkCacheSize(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + cacheSize);
+        }
+        return cacheSize;
+    }
+
+    private void cachePut(K key, V value) {
+        synchronized (cache) {
+            if (cacheSize > 0) {
+                cache.put(key, value);
+            }
+        }
+    }
+
+    private MapRow findRow(Object key) {
+        return findRow(key, encodeKey(key));
+    }
+
+    private MapRow findRow(Object key, byte[] keyBytes) {
+        List<MapRow> rows = tableManager.getDatabase().readMapRows(tableManager.getTableName(), hash(keyBytes));
+        for (MapRow row : rows) {
+            if (key == null ? decodeKey(row.getKey()) == null : key.equals(decodeKey(row.getKey()))) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] encodeKey(Object key) {
+        try {
+            return Codecs.encode(KEY_CODEC, key);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Ключ не сериализуется: " + key, e);
+        }
+    }
+
+    private static Object decodeKey(byte[] bytes) {
+        try {
+            return Codecs.decode(bytes);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Не удалось прочитать ключ", e);
+        }
+    }
+
+    // 64-bit FNV-1a over the encoded key
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -1,118 +1,955 @@
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 
 public class ObjectStore<E extends Serializable> extends AbstractList<E> implements List<E> {
     
     private final TableManager tableManager;
-    private final List<E> cache;
+    private final ObjectCache<E> cache;
+    private final ChangeTracker changes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean deferredWrites;
+    private volatile AsyncWriter asyncWriter;
+    private volatile Consumer<Throwable> writeErrorHandler;
+    private final Path snapshotFile;
+    private final AtomicLong inPlaceUpdates = new AtomicLong();
+    private volatile boolean snapshotSaved;
+    private volatile ScheduledExecutorService snapshotter;
+    private int[] snapshotIds;
+    private long snapshotUpdates;
+    private volatile long changeSequence;
+    private final Runnable rollbackAction = this::reload;
     
 
     public ObjectStore(String tableName) {
-        this.tableManager = new TableManager(tableName);
-        this.cache = loadCache();
+        this(tableName, false);
+    }
+    
+    public ObjectStore(String tableName, boolean deferredWrites) {
+        this(new TableManager(tableName), deferredWrites);
+    }
+    
+    public ObjectStore(String tableName, Codec codec) {
+        this(new TableManager(tableName, codec), false);
+    }
+    
+    public ObjectStore(TableManager tableManager) {
+        this(tableManager, false);
+    }
+    
+    public ObjectStore(TableManager tableManager, boolean deferredWrites) {
+        this(tableManager, new HeapCache<E>(), deferredWrites);
+    }
+    
+    public ObjectStore(String tableName, int pageSize, int maxPages) {
+        this(new TableManager(tableName), pageSize, maxPages);
+    }
+    
+    public ObjectStore(TableManager tableManager, int pageSize, int maxPages) {
+        this(tableManager, new PagedCache<E>(tableManager, pageSize, maxPages), false);
+    }
+    
+    public ObjectStore(String tableName, String snapshotFile) {
+        this(new TableManager(tableName), snapshotFile);
+    }
+    
+    public ObjectStore(TableManager tableManager, String snapshotFile) {
+        this(tableManager, new HeapCache<E>(), false, snapshotFile);
+    }
+    
+    public ObjectStore(TableManager tableManager, ObjectCache<E> cache, boolean deferredWrites) {
+        this(tableManager, cache, deferredWrites, null);
+    }
+    
+    // With a snapshot file, the cache is filled from the snapshot plus the rows added after it.
+    // Snapshots need the Derby engine; on other engines the store always loads in full.
+    public ObjectStore(TableManager tableManager, ObjectCache<E> cache, boolean deferredWrites, String snapshotFile) {
+        if (snapshotFile != null && cache instanceof PagedCache) {
+            throw new UnsupportedOperationException("Снимки недоступны в постраничном режиме");
+        }
+        this.tableManager = tableManager;
+        this.cache = cache;
+        this.snapshotFile = snapshotFile != null ? Paths.get(snapshotFile) : null;
+        this.changeSequence = prepareLoad();
+        if (this.snapshotFile == null || !loadSnapshot()) {
+            this.cache.reload(tableManager);
+        }
+        tableManager.alignRowIds(changeSequence);
+        this.changes = new ChangeTracker(cache.size());
+        this.deferredWrites = deferredWrites;
+        tableManager.getMetrics().bindCache(cache);
     }
     
 
     @Override
     public int size() {
-        return cache.size();
+        lock.readLock().lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
   
     @Override
     public E get(int index) {
-        if (index < 0 || index >= size()) {
-            throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+        lock.readLock().lock();
+        try {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+            }
+            return cache.get(index);
+        } finally {
+            lock.readLock().unlock();
         }
-        return cache.get(index);
     }
     
   
     @Override
     public boolean add(E element) {
-        boolean result = tableManager.add(element);
-        if (result) {
-            cache.add(element);
+        lock.writeLock().lock();
+        try {
+            if (deferredWrites) {
+                cache.add(element);
+                changes.add();
+                return true;
+            }
+        
+            if (asyncWriter != null) {
+                addAsync(element);
+                return true;
+            }
+        
+            joinTransaction();
+            boolean result = tableManager.add(element);
+            if (result) {
+                cache.add(element);
+                changes.persistedAdd();
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return result;
     }
     
   
     @Override
-    public E remove(int index) {
-        if (index < 0 || index >= size()) {
-            throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
-        }
+    public boolean addAll(Collection<? extends E> elements) {
+        lock.writeLock().lock();
+        try {
+            if (elements.isEmpty()) {
+                return false;
+            }
+        
+            if (deferredWrites) {
+                for (E element : elements) {
+                    cache.add(element);
+                    changes.add();
+                }
+                return true;
+            }
         
-        E removed = cache.get(index);
-        Object result = tableManager.remove(index);
+            if (asyncWriter != null) {
+                for (E element : elements) {
+                    addAsync(element);
+                }
+                return true;
+            }
         
-        if (result != null) {
-            cache.remove(index);
-            return removed;
+            joinTransaction();
+            boolean result = tableManager.addAll(elements);
+            if (result) {
+                for (E element : elements) {
+                    cache.add(element);
+                    changes.persistedAdd();
+                }
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
+    
+  
+    @Override
+    public E remove(int index) {
+        lock.writeLock().lock();
+        try {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+            }
+        
+            if (deferredWrites) {
+                changes.remove(index);
+                return cache.remove(index);
+            }
+        
+            if (asyncWriter != null) {
+                E removed = cache.get(index);
+                removeAsync(index);
+                return removed;
+            }
         
-        throw new IllegalStateException("Не удалось удалить элемент из базы данных");
+            E removed = cache.get(index);
+            joinTransaction();
+            Object result = tableManager.remove(index);
+        
+            if (result != null) {
+                cache.remove(index);
+                changes.persistedRemove(index);
+                return removed;
+            }
+        
+            throw new IllegalStateException("Не удалось удалить элемент из базы данных");
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     
     
     @Override
     public E set(int index, E element) {
-        if (index < 0 || index >= size()) {
-            throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
-        }
+        lock.writeLock().lock();
+        try {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+            }
+            invalidateSnapshot();
         
-        E oldValue = cache.get(index);
-        Object result = tableManager.set(index, element);
+            if (deferredWrites) {
+                changes.update(index);
+                return cache.set(index, element);
+            }
         
-        if (result != null) {
-            cache.set(index, element);
-            return oldValue;
-        }
+            if (asyncWriter != null) {
+                E oldValue = cache.get(index);
+                setAsync(index, element);
+                return oldValue;
+            }
+        
+            E oldValue = cache.get(index);
+            joinTransaction();
+            Object result = tableManager.set(index, element);
+        
+            if (result != null) {
+                cache.set(index, element);
+                changes.persistedSet(index);
+                return oldValue;
+            }
         
-        throw new IllegalStateException("Не удалось обновить элемент в базе данных");
+            throw new IllegalStateException("Не удалось обновить элемент в базе данных");
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     
   
     @Override
     public void clear() {
-        tableManager.clear();
-        cache.clear();
+        lock.writeLock().lock();
+        try {
+            if (deferredWrites) {
+                cache.clear();
+                changes.truncate();
+                return;
+            }
+        
+            if (asyncWriter != null) {
+                cache.clear();
+                changes.reset(0);
+                asyncWriter.clear();
+                return;
+            }
+        
+            joinTransaction();
+            if (!tableManager.deleteAll()) {
+                throw new IllegalStateException("Не удалось очистить таблицу в базе данных");
+            }
+            cache.clear();
+            changes.reset(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
   
     public void close() {
+        stopSnapshots();
+        disableAsyncWrites();
+        if (snapshotFile != null && tableManager.getStorageEngine().isTableExist(tableManager.getTableName())) {
+            saveSnapshot();
+        }
         tableManager.close();
     }
     
+    @Override
+    public void add(int index, E element) {
+        lock.writeLock().lock();
+        try {
+            if (index < 0 || index > size()) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+            }
+            if (deferredWrites) {
+                cache.add(index, element);
+                changes.insert(index);
+                return;
+            }
+            if (asyncWriter != null) {
+                cache.add(index, element);
+                changes.persistedInsert(index);
+                asyncWriter.insert(index, element);
+                return;
+            }
+            joinTransaction();
+            if (!tableManager.insert(index, element)) {
+                throw new IllegalStateException("Не удалось вставить элемент в базу данных");
+            }
+            cache.add(index, element);
+            changes.persistedInsert(index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public CompletableFuture<Boolean> addAsync(E element) {
+        lock.writeLock().lock();
+        try {
+            AsyncWriter writer = asyncWriter;
+            if (writer == null) {
+                return CompletableFuture.completedFuture(add(element));
+            }
+            cache.add(element);
+            changes.persistedAdd();
+            return writer.add(element);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public CompletableFuture<E> setAsync(int index, E element) {
+        lock.writeLock().lock();
+        try {
+            AsyncWriter writer = asyncWriter;
+            if (writer == null) {
+                return CompletableFuture.completedFuture(set(index, element));
+            }
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+            }
+            invalidateSnapshot();
+            E oldValue = cache.set(index, element);
+            changes.persistedSet(index);
+            return writer.set(index, element).thenApply(result -> oldValue);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public CompletableFuture<E> removeAsync(int index) {
+        lock.writeLock().lock();
+        try {
+            AsyncWriter writer = asyncWriter;
+            if (writer == null) {
+                return CompletableFuture.completedFuture(remove(index));
+            }
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+            }
+            E removed = cache.remove(index);
+            changes.persistedRemove(index);
+            return writer.remove(index).thenApply(result -> removed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void enableAsyncWrites(int queueCapacity) {
+        lock.writeLock().lock();
+        try {
+            if (deferredWrites || isPaged()) {
+                throw new UnsupportedOperationException("Асинхронная запись недоступна в отложенном и постраничном режимах");
+            }
+            if (asyncWriter == null) {
+                AsyncWriter writer = new AsyncWriter(tableManager, queueCapacity);
+                writer.setErrorHandler(writeErrorHandler);
+                asyncWriter = writer;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void disableAsyncWrites() {
+        AsyncWriter writer;
+        lock.writeLock().lock();
+        try {
+            writer = asyncWriter;
+            asyncWriter = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+    
+    public boolean isAsyncWrites() {
+        return asyncWriter != null;
+    }
+    
+    public void flush() {
+        AsyncWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+    
+    public AsyncWriter getAsyncWriter() {
+        return asyncWriter;
+    }
+    
+    public void setWriteErrorHandler(Consumer<Throwable> writeErrorHandler) {
+        this.writeErrorHandler = writeErrorHandler;
+        AsyncWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.setErrorHandler(writeErrorHandler);
+        }
+    }
+    
+    public Transaction beginTransaction() {
+        flush();
+        Transaction transaction = tableManager.beginTransaction();
+        joinTransaction();
+        return transaction;
+    }
+    
+    public boolean commit() {
+        return tableManager.commit();
+    }
+    
+    public boolean rollback() {
+        return tableManager.rollback();
+    }
+    
   
     @Override
     public boolean isEmpty() {
-        return cache.isEmpty();
+        lock.readLock().lock();
+        try {
+            return cache.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
    
     public boolean dispose() {
-        boolean result = tableManager.dispose();
-        if (result) {
-            cache.clear();
+        stopSnapshots();
+        disableAsyncWrites();
+        lock.writeLock().lock();
+        try {
+            boolean result = tableManager.dispose();
+            if (result) {
+                cache.clear();
+                changes.reset(0);
+                invalidateSnapshot();
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return result;
     }
     
     
     public void saveChanges() {
-        tableManager.clear();
-        for (E element : cache) {
-            tableManager.add(element);
+        lock.writeLock().lock();
+        try {
+            if (!changes.hasChanges()) {
+                return;
+            }
+        
+            joinTransaction();
+            int[] updatedIndexes = changes.getUpdatedIndexes();
+            if (updatedIndexes.length > 0) {
+                invalidateSnapshot();
+            }
+            int[] updatedPositions = new int[updatedIndexes.length];
+            List<E> updated = new ArrayList<>(updatedIndexes.length);
+            for (int i = 0; i < updatedIndexes.length; i++) {
+                updatedPositions[i] = changes.getOrigin(updatedIndexes[i]);
+                updated.add(cache.get(updatedIndexes[i]));
+            }
+        
+            int[] insertedIndexes = changes.getInsertedIndexes();
+            List<E> inserted = new ArrayList<>(insertedIndexes.length);
+            for (int index : insertedIndexes) {
+                inserted.add(cache.get(index));
+            }
+        
+            // A truncation is written as a delete-all inside the same transaction
+            if (!tableManager.applyChanges(changes.isTruncated(), changes.getRemovedPositions(), updatedPositions,
+                    updated, insertedIndexes, inserted)) {
+                throw new IllegalStateException("Не удалось сохранить изменения в базе данных");
+            }
+            changes.reset(cache.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public void markDirty(int index) {
+        lock.writeLock().lock();
+        try {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size());
+            }
+            if (cache instanceof OffHeapCache) {
+                // The cache keeps bytes, so the change is written as a set of the hot object
+                E element = ((OffHeapCache<E>) cache).getHot(index);
+                if (element == null) {
+                    throw new IllegalStateException("Элемент " + index + " вытеснен из кэша, используйте set()");
+                }
+                set(index, element);
+                return;
+            }
+            invalidateSnapshot();
+            cache.markDirty(index);
+            if (asyncWriter != null) {
+                asyncWriter.set(index, cache.get(index));
+                return;
+            }
+            if (isPaged()) {
+                joinTransaction();
+                if (tableManager.set(index, cache.get(index)) == null) {
+                    throw new IllegalStateException("Не удалось обновить элемент в базе данных");
+                }
+                return;
+            }
+            changes.markDirty(index);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public boolean hasUnsavedChanges() {
+        lock.readLock().lock();
+        try {
+            return changes.hasChanges();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public boolean isDeferredWrites() {
+        return deferredWrites;
+    }
+    
+    public boolean isPaged() {
+        return cache instanceof PagedCache;
+    }
+    
+    public void setDeferredWrites(boolean deferredWrites) {
+        lock.writeLock().lock();
+        try {
+            if (deferredWrites && isPaged()) {
+                throw new UnsupportedOperationException("Отложенная запись недоступна в постраничном режиме");
+            }
+            if (deferredWrites && asyncWriter != null) {
+                throw new UnsupportedOperationException("Отложенная запись недоступна в асинхронном режиме");
+            }
+            if (this.deferredWrites && !deferredWrites) {
+                saveChanges();
+            }
+            this.deferredWrites = deferredWrites;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
   
+    public void setLoadParallelism(int parallelism) {
+        tableManager.setLoadParallelism(parallelism);
+    }
+    
+    public ParallelLoader getLoader() {
+        return tableManager.getLoader();
+    }
+  
+    /**
+     * Brings the cache up to date with the table. Only rows changed since the last load or
+     * refresh are read and patched in; the whole table is reloaded in paged mode, when
+     * deferred changes are pending (they are discarded), after the table was cleared, or
+     * when another TableManager in this JVM added or removed rows since, as the shared row
+     * index then no longer matches the cache positions.
+     */
     public void refresh() {
+        flush();
+        lock.writeLock().lock();
+        try {
+            if (changes.hasChanges() || !refreshChanges()) {
+                reload();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Stores on a shared Database share its transactions, so a write may join one begun by
+    // another store; if that rolls back, the cache is reloaded
+    private void joinTransaction() {
+        StorageEngine engine = tableManager.getStorageEngine();
+        if (engine instanceof Database) {
+            ((Database) engine).onRollback(rollbackAction);
+        }
+    }
+    
+    private void reload() {
+        lock.writeLock().lock();
+        try {
+            long sequence = prepareLoad();
+            cache.reload(tableManager);
+            changes.reset(cache.size());
+            changeSequence = sequence;
+            tableManager.alignRowIds(sequence);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private boolean refreshChanges() {
+        long sequence = changeSequence;
+        StorageEngine engine = tableManager.getStorageEngine();
+        if (sequence < 0 || isPaged() || !(engine instanceof Database)) {
+            return false;
+        }
+        Database db = (Database) engine;
+        String tableName = tableManager.getTableName();
+        ChangeSet delta = db.readChangesSince(tableName, sequence);
+        if (delta == null || delta.isReset()) {
+            return false;
+        }
+        if (delta.isEmpty()) {
+            changeSequence = delta.getSequence();
+            return true;
+        }
+        
+        List<Object> decoded = IntStream.range(0, delta.size()).parallel()
+                .mapToObj(i -> tableManager.byteToObject(delta.getRow(i)))
+                .collect(Collectors.toList());
+        if (decoded.contains(null)) {
+            return false;
+        }
+        if (snapshotFile != null && delta.size() > 0) {
+            int[] ids = db.getRowIds(tableName);
+            if (ids != null) {
+                Arrays.sort(ids);
+            }
+            if (ids == null || IntStream.range(0, delta.size())
+                    .anyMatch(i -> Arrays.binarySearch(ids, delta.getId(i)) >= 0)) {
+                // Rows replaced by another writer are not covered by the snapshot's row ids
+                invalidateSnapshot();
+            }
+        }
+        int[] sources = tableManager.mergeChanges(delta, cache.size());
+        if (sources == null) {
+            return false;
+        }
+        cache.patch(sources, (List<E>) (List<?>) decoded);
+        changes.reset(cache.size());
+        changeSequence = delta.getSequence();
+        return true;
+    }
+    
+    /**
+     * Takes the change sequence and drops the row index right before the cache is filled;
+     * the scan that fills it loads the index again, so cache positions match row positions,
+     * including rows other processes wrote. -1 where the engine keeps no change sequence;
+     * refresh() then always reloads in full.
+     */
+    private long prepareLoad() {
+        StorageEngine engine = tableManager.getStorageEngine();
+        if (!(engine instanceof Database)) {
+            return -1;
+        }
+        Database db = (Database) engine;
+        String tableName = tableManager.getTableName();
+        long sequence = db.getChangeSequence(tableName);
+        db.invalidateRowIdIndex(tableName);
+        return sequence;
+    }
+    
+    /**
+     * Writes the cached elements, their row ids and the change sequence the cache was last
+     * loaded or refreshed at to the snapshot file. Skipped (false) while deferred or queued writes are pending, and on
+     * engines other than Derby.
+     */
+    public synchronized boolean saveSnapshot() {
+        requireSnapshots();
+        flush();
+        StorageEngine engine = tableManager.getStorageEngine();
+        if (!(engine instanceof Database)) {
+            return false;
+        }
+        String tableName = tableManager.getTableName();
+        Database db = (Database) engine;
+        // Caught up first, so the recorded sequence covers this store's own writes as well
+        lock.writeLock().lock();
+        try {
+            if (!changes.hasChanges() && !refreshChanges()) {
+                reload();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        int[] ids;
+        long updates;
+        long sequence;
+        List<E> elements;
+        lock.readLock().lock();
+        try {
+            AsyncWriter writer = asyncWriter;
+            sequence = changeSequence;
+            if (sequence < 0 || changes.hasChanges() || (writer != null && writer.getPendingWrites() > 0)) {
+                return false;
+            }
+            ids = db.getRowIds(tableName);
+            if (ids == null || ids.length != cache.size()) {
+                return false;
+            }
+            updates = inPlaceUpdates.get();
+            if (snapshotSaved && updates == snapshotUpdates && Arrays.equals(ids, snapshotIds)) {
+                return true;
+            }
+            elements = new ArrayList<>(cache);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long start = System.nanoTime();
+        List<byte[]> rows = elements.parallelStream()
+                .map(tableManager::objectToByte)
+                .collect(Collectors.toList());
+        try {
+            Snapshot.write(snapshotFile, db.getTableId(tableName), sequence, ids, rows);
+        } catch (IOException e) {
+            Metrics.recordError(db.getPath(), tableName, null, e);
+            return false;
+        }
+        snapshotSaved = true;
+        if (inPlaceUpdates.get() != updates) {
+            // An element was replaced while the file was written
+            invalidateSnapshot();
+            return false;
+        }
+        snapshotIds = ids;
+        snapshotUpdates = updates;
+        Metrics.recordOperation(db.getPath(), tableName, Metrics.Operation.SCAN, start, rows.size(), 0);
+        return true;
+    }
+    
+    public void startSnapshots(long intervalMillis) {
+        requireSnapshots();
+        stopSnapshots();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "serialdb-snapshot-" + tableManager.getTableName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                saveSnapshot();
+            } catch (RuntimeException e) {
+                Metrics.recordError(tableManager.getStorageEngine().getPath(), tableManager.getTableName(), null, e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        snapshotter = executor;
+    }
+    
+    public void stopSnapshots() {
+        ScheduledExecutorService executor = snapshotter;
+        if (executor == null) {
+            return;
+        }
+        snapshotter = null;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    public String getSnapshotFile() {
+        return snapshotFile != null ? snapshotFile.toString() : null;
+    }
+    
+    private void requireSnapshots() {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("Для этого хранилища не задан файл снимка");
+        }
+    }
+    
+    // Row ids cannot show an element replaced in place, so such writes drop the snapshot
+    private void invalidateSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+        inPlaceUpdates.incrementAndGet();
+        if (snapshotSaved) {
+            snapshotSaved = false;
+            try {
+                Files.deleteIfExists(snapshotFile);
+            } catch (IOException e) {
+                Metrics.recordError(tableManager.getStorageEngine().getPath(), tableManager.getTableName(), null, e);
+            }
+        }
+    }
+    
+    /**
+     * Fills the cache from the snapshot, replaying the rows inserted or updated after its
+     * change sequence. False, and the caller falls back to a full load, if the snapshot is
+     * missing, damaged or no longer matches the table: recreated or cleared, its tombstones
+     * pruned past the snapshot, or a row neither in the snapshot nor changed since.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean loadSnapshot() {
+        long start = System.nanoTime();
+        StorageEngine engine = tableManager.getStorageEngine();
+        if (!(engine instanceof Database)) {
+            return false;
+        }
+        String tableName = tableManager.getTableName();
+        Database db = (Database) engine;
+        Snapshot snapshot;
+        try {
+            snapshot = Snapshot.read(snapshotFile);
+        } catch (IOException e) {
+            Metrics.recordError(db.getPath(), tableName, Metrics.Operation.LOAD, e);
+            return false;
+        }
+        if (snapshot == null || !snapshot.getTableId().equals(db.getTableId(tableName))) {
+            return false;
+        }
+        ChangeSet delta = db.readChangesSince(tableName, snapshot.getChangeSequence());
+        int[] ids = db.getRowIds(tableName);
+        if (delta == null || delta.isReset() || ids == null) {
+            return false;
+        }
+
+        // Snapshot rows deleted or rewritten since are skipped; the rewritten ones come from the delta
+        Map<Integer, Integer> changedRows = new HashMap<>();
+        for (int i = 0; i < delta.size(); i++) {
+            changedRows.put(delta.getId(i), i);
+        }
+        Set<Integer> replaced = new HashSet<>(changedRows.keySet());
+        for (int id : delta.getDeletedIds()) {
+            replaced.add(id);
+        }
+        int[] sources = new int[ids.length];
+        int next = 0;
+        for (int i = 0; i < ids.length; i++) {
+            Integer changed = changedRows.get(ids[i]);
+            if (changed != null) {
+                sources[i] = -1 - changed;
+                continue;
+            }
+            while (next < snapshot.size() && replaced.contains(snapshot.getId(next))) {
+                next++;
+            }
+            if (next == snapshot.size() || snapshot.getId(next) != ids[i]) {
+                return false;
+            }
+            sources[i] = next++;
+        }
+        while (next < snapshot.size() && replaced.contains(snapshot.getId(next))) {
+            next++;
+        }
+        if (next != snapshot.size()) {
+            return false;
+        }
+
+        List<Object> objects = IntStream.range(0, ids.length).parallel()
+                .mapToObj(i -> tableManager.byteToObject(sources[i] >= 0
+                        ? snapshot.getRow(sources[i]) : delta.getRow(-1 - sources[i])))
+                .collect(Collectors.toList());
+        if (objects.contains(null)) {
+            return false;
+        }
         cache.clear();
-        cache.addAll(loadCache());
+        for (Object obj : objects) {
+            cache.add((E) obj);
+        }
+        snapshotSaved = true;
+        snapshotIds = delta.isEmpty() ? ids : null;
+        Metrics.recordOperation(db.getPath(), tableName, Metrics.Operation.LOAD, start, objects.size(), 0);
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <K extends Comparable<? super K>> boolean addIndex(String name, Class<K> keyType,
+            Function<? super E, K> extractor) {
+        flush();
+        lock.writeLock().lock();
+        try {
+            return tableManager.addIndex(name, keyType, obj -> extractor.apply((E) obj));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public boolean removeIndex(String name) {
+        flush();
+        lock.writeLock().lock();
+        try {
+            return tableManager.removeIndex(name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    // Reads the database, so unsaved changes of a deferred store are not visible
+    @SuppressWarnings("unchecked")
+    public List<E> findBy(String index, Object key) {
+        flush();
+        lock.readLock().lock();
+        try {
+            return (List<E>) (List<?>) tableManager.findBy(index, key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <K extends Comparable<? super K>> List<E> rangeBy(String index, K from, K to) {
+        flush();
+        lock.readLock().lock();
+        try {
+            return (List<E>) (List<?>) tableManager.rangeBy(index, from, to);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
     
    
@@ -121,7 +958,7 @@ public class ObjectStore<E extends Serializable> extends AbstractList<E> impleme
         if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
             throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size());
         }
-        return cache.subList(fromIndex, toIndex);
+        return super.subList(fromIndex, toIndex);
     }
     
     
@@ -133,19 +970,4 @@ public class ObjectStore<E extends Serializable> extends AbstractList<E> impleme
     public String getTableName() {
         return tableManager.getTableName();
     }
-    
-   
-    @SuppressWarnings("unchecked")
-	private List<E> loadCache() {
-        List<Object> objects = tableManager.getAll();
-        List<E> result = new ArrayList<>(objects.size());
-        
-        for (Object obj : objects) {
-            if (obj != null) {
-                result.add((E) obj);
-            }
-        }
-        
-        return result;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,363 @@
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps elements in serialized form in direct buffers. Each element is addressed by
+// (arena << 32 | offset) and a length; get() decodes on demand and keeps the most
+// recently used objects in a small on-heap hot set.
+public class OffHeapCache<E> extends AbstractList<E> implements ObjectCache<E> {
+
+    public static final int DEFAULT_ARENA_SIZE = 16 * 1024 * 1024;
+
+    private final TableManager tableManager;
+    private final int arenaSize;
+    private final int hotSetSize;
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private final LinkedHashMap<Long, E> hot;
+    private long[] addresses = new long[16];
+    private int[] lengths = new int[16];
+    private int size;
+    private int currentArena = -1;
+    private int currentOffset;
+    private long allocatedBytes;
+    private long liveBytes;
+    private long hits;
+    private long misses;
+
+    public OffHeapCache(TableManager tableManager, int hotSetSize) {
+        this(tableManager, hotSetSize, DEFAULT_ARENA_SIZE);
+    }
+
+    public OffHeapCache(TableManager tableManager, int hotSetSize, int arenaSize) {
+        if (hotSetSize < 0 || arenaSize <= 0) {
+            throw new IllegalArgumentException("hotSetSize: " + hotSetSize + ", arenaSize: " + arenaSize);
+        }
+        this.tableManager = tableManager;
+        this.hotSetSize = hotSetSize;
+        this.arenaSize = arenaSize;
+        this.hot = new LinkedHashMap<Long, E>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, E> eldest) {
+                return size() > OffHeapCache.this.hotSetSize;
+            }
+        };
+    }
+
+    @Override
+    public void reload(TableManager tableManager) {
+        synchronized (this) {
+            clear();
+        }
+        try (RowScan rows = tableManager.iterateRows()) {
+            while (rows.hasNext()) {
+                byte[] bytes = rows.next();
+                synchronized (this) {
+                    insertBytes(size, bytes);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        long address;
+        byte[] bytes;
+        synchronized (this) {
+            checkIndex(index);
+            if (lengths[index] == 0) {
+                return null;
+            }
+            address = addresses[index];
+            E element = hot.get(address);
+            if (element != null) {
+                hits++;
+                return element;
+            }
+            misses++;
+            bytes = read(address, lengths[index]);
+        }
+
+        // Decode outside the lock so concurrent readers do not serialize on it
+        E element = (E) tableManager.byteToObject(bytes);
+        synchronized (this) {
+            if (element != null && hotSetSize > 0 && index < size && addresses[index] == address) {
+                E current = hot.putIfAbsent(address, element);
+                if (current != null) {
+                    return current;
+                }
+            }
+        }
+        return element;
+    }
+
+    @Override
+    public boolean add(E element) {
+        byte[] bytes = tableManager.objectToByte(element);
+        synchronized (this) {
+            insertBytes(size, bytes);
+            remember(size - 1, element);
+        }
+        return true;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        byte[] bytes = tableManager.objectToByte(element);
+        synchronized (this) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size);
+            }
+            insertBytes(index, bytes);
+            remember(index, element);
+        }
+    }
+
+    @Override
+    public E set(int index, E element) {
+        E oldValue = get(index);
+        byte[] bytes = tableManager.objectToByte(element);
+        synchronized (this) {
+            checkIndex(index);
+            release(index);
+            store(index, bytes);
+            remember(index, element);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public E remove(int index) {
+        E removed = get(index);
+        synchronized (this) {
+            checkIndex(index);
+            release(index);
+            System.arraycopy(addresses, index + 1, addresses, index, size - index - 1);
+            System.arraycopy(lengths, index + 1, lengths, index, size - index - 1);
+            size--;
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void clear() {
+        arenas.clear();
+        hot.clear();
+        addresses = new long[16];
+        lengths = new int[16];
+        size = 0;
+        currentArena = -1;
+        currentOffset = 0;
+        allocatedBytes = 0;
+        liveBytes = 0;
+    }
+
+    // Re-serializes an element changed in place. Only the hot set holds the caller's object;
+    // once it has been evicted the change cannot be seen here and set(index, e) is required.
+    @Override
+    public synchronized void markDirty(int index) {
+        checkIndex(index);
+        if (lengths[index] == 0) {
+            return;
+        }
+        E element = getHot(index);
+        if (element == null) {
+            throw new IllegalStateException("Элемент " + index + " вытеснен из кэша, используйте set()");
+        }
+        release(index);
+        store(index, tableManager.objectToByte(element));
+        remember(index, element);
+    }
+
+    // The on-heap object for index, or null when it is not in the hot set
+    public synchronized E getHot(int index) {
+        checkIndex(index);
+        return lengths[index] == 0 ? null : hot.get(addresses[index]);
+    }
+
+    // Moves kept elements by address, so only the changed ones are encoded
+    @Override
+    public void patch(int[] sources, List<? extends E> changed) {
+        List<byte[]> encoded = new ArrayList<>(changed.size());
+        for (E element : changed) {
+            encoded.add(tableManager.objectToByte(element));
+        }
+        synchronized (this) {
+            int capacity = Math.max(16, sources.length);
+            long[] patchedAddresses = new long[capacity];
+            int[] patchedLengths = new int[capacity];
+            boolean[] kept = new boolean[size];
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] >= 0) {
+                    kept[sources[i]] = true;
+                    patchedAddresses[i] = addresses[sources[i]];
+                    patchedLengths[i] = lengths[sources[i]];
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (!kept[i]) {
+                    release(i);
+                }
+            }
+            addresses = patchedAddresses;
+            lengths = patchedLengths;
+            size = sources.length;
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i] < 0) {
+                    store(i, encoded.get(-1 - sources[i]));
+                    remember(i, changed.get(-1 - sources[i]));
+                }
+            }
+        }
+    }
+
+    public int getArenaSize() {
+        return arenaSize;
+    }
+
+    public int getHotSetSize() {
+        return hotSetSize;
+    }
+
+    public synchronized int getArenaCount() {
+        return arenas.size();
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void insertBytes(int index, byte[] bytes) {
+        if (size == addresses.length) {
+            int capacity = Math.max(16, size + (size >> 1));
+            addresses = Arrays.copyOf(addresses, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        System.arraycopy(addresses, index, addresses, index + 1, size - index);
+        System.arraycopy(lengths, index, lengths, index + 1, size - index);
+        size++;
+        store(index, bytes);
+    }
+
+    private void store(int index, byte[] bytes) {
+        lengths[index] = bytes.length;
+        addresses[index] = bytes.length == 0 ? -1 : allocate(bytes);
+        liveBytes += bytes.length;
+        if (allocatedBytes - liveBytes > Math.max(arenaSize, liveBytes)) {
+            compact();
+        }
+    }
+
+    private void release(int index) {
+        if (lengths[index] > 0) {
+            hot.remove(addresses[index]);
+            liveBytes -= lengths[index];
+        }
+    }
+
+    private void remember(int index, E element) {
+        if (element != null && hotSetSize > 0 && lengths[index] > 0) {
+            hot.put(addresses[index], element);
+        }
+    }
+
+    private long allocate(byte[] bytes) {
+        ByteBuffer arena;
+        int arenaIndex;
+        int offset;
+        if (bytes.length > arenaSize) {
+            // Oversized elements get a buffer of their own
+            arena = ByteBuffer.allocateDirect(bytes.length);
+            arenas.add(arena);
+            arenaIndex = arenas.size() - 1;
+            offset = 0;
+        } else {
+            if (currentArena < 0 || currentOffset + bytes.length > arenaSize) {
+                arenas.add(ByteBuffer.allocateDirect(arenaSize));
+                currentArena = arenas.size() - 1;
+                currentOffset = 0;
+            }
+            arena = arenas.get(currentArena);
+            arenaIndex = currentArena;
+            offset = currentOffset;
+            currentOffset += bytes.length;
+        }
+        arena.position(offset);
+        arena.put(bytes);
+        allocatedBytes += bytes.length;
+        return ((long) arenaIndex << 32) | offset;
+    }
+
+    private byte[] read(long address, int length) {
+        ByteBuffer arena = arenas.get((int) (address >>> 32));
+        byte[] bytes = new byte[length];
+        arena.position((int) address);
+        arena.get(bytes);
+        return bytes;
+    }
+
+    // Copies live elements into fresh arenas once more than half of the allocated space is garbage
+    private void compact() {
+        List<ByteBuffer> oldArenas = new ArrayList<>(arenas);
+        Map<Long, Long> moved = new HashMap<>();
+        arenas.clear();
+        currentArena = -1;
+        currentOffset = 0;
+        allocatedBytes = 0;
+        for (int i = 0; i < size; i++) {
+            if (lengths[i] == 0) {
+                continue;
+            }
+            long oldAddress = addresses[i];
+            ByteBuffer arena = oldArenas.get((int) (oldAddress >>> 32));
+            byte[] bytes = new byte[lengths[i]];
+            arena.position((int) oldAddress);
+            arena.get(bytes);
+            addresses[i] = allocate(bytes);
+            if (hot.containsKey(oldAddress)) {
+                moved.put(oldAddress, addresses[i]);
+            }
+        }
+
+        List<Map.Entry<Long, E>> entries = new ArrayList<>(hot.entrySet());
+        hot.clear();
+        for (Map.Entry<Long, E> entry : entries) {
+            Long address = moved.get(entry.getKey());
+            if (address != null) {
+                hot.put(address, entry.getValue());
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size);
+        }
+    }
+}
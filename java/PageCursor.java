@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class PageCursor {
+
+    private final Database database;
+    private final String tableName;
+    private final int pageSize;
+    private long lastOrdinal;
+    private boolean exhausted;
+
+    public PageCursor(Database database, String tableName, long lastOrdinal, int pageSize) {
+        this.database = database;
+        this.tableName = tableName;
+        this.lastOrdinal = lastOrdinal;
+        this.pageSize = pageSize;
+    }
+
+    public boolean hasNext() {
+        return !exhausted;
+    }
+
+    public List<byte[]> next() {
+        if (exhausted) {
+            return Collections.emptyList();
+        }
+
+        List<byte[]> page = new ArrayList<>(pageSize);
+        lastOrdinal = database.readPage(tableName, lastOrdinal, pageSize, page);
+        if (page.size() < pageSize) {
+            exhausted = true;
+        }
+        return page;
+    }
+
+    public long getLastOrdinal() {
+        return lastOrdinal;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PagedCache<E> extends AbstractList<E> implements ObjectCache<E> {
+
+    private final TableManager tableManager;
+    private final int pageSize;
+    private final int maxPages;
+    private final LinkedHashMap<Integer, List<E>> pages;
+    private int size;
+    private long hits;
+    private long misses;
+
+    public PagedCache(TableManager tableManager, int pageSize, int maxPages) {
+        if (pageSize <= 0 || maxPages <= 0) {
+            throw new IllegalArgumentException("pageSize: " + pageSize + ", maxPages: " + maxPages);
+        }
+        this.tableManager = tableManager;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.pages = new LinkedHashMap<Integer, List<E>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<E>> eldest) {
+                return size() > PagedCache.this.maxPages;
+            }
+        };
+    }
+
+    @Override
+    public synchronized void reload(TableManager tableManager) {
+        pages.clear();
+        size = Math.max(0, tableManager.size());
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized E get(int index) {
+        checkIndex(index);
+        return page(index / pageSize).get(index % pageSize);
+    }
+
+    @Override
+    public synchronized boolean add(E element) {
+        int pageNumber = size / pageSize;
+        List<E> page = pages.get(pageNumber);
+        if (page != null) {
+            page.add(element);
+        }
+        size++;
+        return true;
+    }
+
+    @Override
+    public synchronized void add(int index, E element) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size);
+        }
+        if (index == size) {
+            add(element);
+            return;
+        }
+        invalidateFrom(index / pageSize);
+        size++;
+    }
+
+    @Override
+    public synchronized E set(int index, E element) {
+        checkIndex(index);
+        return page(index / pageSize).set(index % pageSize, element);
+    }
+
+    @Override
+    public synchronized E remove(int index) {
+        E removed = get(index);
+        invalidateFrom(index / pageSize);
+        size--;
+        return removed;
+    }
+
+    private void invalidateFrom(int firstPage) {
+        Iterator<Integer> iterator = pages.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() >= firstPage) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        pages.clear();
+        size = 0;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    public synchronized int getLoadedPages() {
+        return pages.size();
+    }
+
+    @Override
+    public long getHits() {
+        return hits;
+    }
+
+    @Override
+    public long getMisses() {
+        return misses;
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized List<E> page(int pageNumber) {
+        List<E> page = pages.get(pageNumber);
+        if (page != null) {
+            hits++;
+            return page;
+        }
+
+        misses++;
+        int start = pageNumber * pageSize;
+        int count = Math.min(pageSize, size - start);
+        page = new ArrayList<>(pageSize);
+        for (Object obj : tableManager.getPage(start, count)) {
+            page.add((E) obj);
+        }
+        if (page.size() != count) {
+            throw new IllegalStateException("Page " + pageNumber + " of " + tableManager.getTableName()
+                    + " has " + page.size() + " rows, expected " + count);
+        }
+        pages.put(pageNumber, page);
+        return page;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Индекс: " + index + ", Размер: " + size);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Loads a whole table as ordinal-ordered chunks. Each chunk is read on its own pooled
+// connection and decoded on the same ForkJoinPool worker, so reading one chunk overlaps
+// with decoding the others. Results are put together in table order. Engines other than
+// Derby are read in one scan and only decoded in parallel.
+public class ParallelLoader {
+
+    private static final int MIN_CHUNK_SIZE = 1000;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final TableManager tableManager;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private volatile long lastLoadNanos;
+    private volatile long lastReadNanos;
+    private volatile long lastDecodeNanos;
+    private volatile int lastRowCount;
+    private volatile int lastChunkCount;
+
+    public ParallelLoader(TableManager tableManager, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.tableManager = tableManager;
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Reads the table in ordinal ranges taken from one copy of the row index. Each chunk
+     * checks that it read exactly the rows of that copy; if the table was written to
+     * meanwhile, it is read again in one scan under the table lock. Throws IllegalStateException if a row cannot
+     * be decoded.
+     */
+    public List<Object> load() {
+        long start = System.nanoTime();
+        String tableName = tableManager.getTableName();
+        StorageEngine engine = tableManager.getStorageEngine();
+        if (!(engine instanceof Database)) {
+            return loadScanned(start);
+        }
+        RowIdIndex index = ((Database) engine).getRowIdSnapshot(tableName);
+        if (index == null) {
+            return loadScanned(start);
+        }
+        int size = index.size();
+        if (size == 0) {
+            report(start, 0, 0, 0, 0);
+            return new ArrayList<>();
+        }
+
+        Database db = (Database) engine;
+        int[] ids = index.getIds();
+        long[] ordinals = index.getOrdinals();
+        int chunkSize = chunkSize(size);
+        int chunkCount = (size + chunkSize - 1) / chunkSize;
+        AtomicLong readNanos = new AtomicLong();
+        AtomicLong decodeNanos = new AtomicLong();
+        List<List<Object>> chunks = run(() -> IntStream.range(0, chunkCount).parallel()
+                .mapToObj(chunk -> {
+                    int from = chunk * chunkSize;
+                    int to = Math.min(size, from + chunkSize) - 1;
+                    long readStart = System.nanoTime();
+                    List<byte[]> rows = new ArrayList<>(to - from + 1);
+                    boolean read = db.readDataInOrdinalRange(tableName, ordinals[from], ordinals[to],
+                            Arrays.copyOfRange(ids, from, to + 1), rows);
+                    readNanos.addAndGet(System.nanoTime() - readStart);
+                    if (!read) {
+                        return null;
+                    }
+                    long decodeStart = System.nanoTime();
+                    List<Object> objects = decode(rows, 0, rows.size(), from);
+                    decodeNanos.addAndGet(System.nanoTime() - decodeStart);
+                    return objects;
+                })
+                .collect(Collectors.toList()));
+
+        List<Object> result = new ArrayList<>(size);
+        for (List<Object> chunk : chunks) {
+            if (chunk == null) {
+                // The table changed under the load; read it again in one pass with its writers held off
+                ReentrantLock lock = db.lockTable(tableName);
+                try {
+                    return loadScanned(start);
+                } finally {
+                    db.unlockTable(lock);
+                }
+            }
+            result.addAll(chunk);
+        }
+        report(start, result.size(), chunkCount, readNanos.get(), decodeNanos.get());
+        return result;
+    }
+
+    // One scan sees a consistent table; only the decoding is split across the pool
+    private List<Object> loadScanned(long start) {
+        String tableName = tableManager.getTableName();
+        List<byte[]> rows = new ArrayList<>();
+        try (RowScan scan = tableManager.iterateRows()) {
+            while (scan.hasNext()) {
+                rows.add(scan.next());
+            }
+            if (scan instanceof RowIterator && !((RowIterator) scan).isComplete()) {
+                throw new IllegalStateException("Failed to read table " + tableName);
+            }
+        }
+        long readNanos = System.nanoTime() - start;
+
+        int size = rows.size();
+        int chunkSize = chunkSize(size);
+        int chunkCount = (size + chunkSize - 1) / chunkSize;
+        List<List<Object>> chunks = run(() -> IntStream.range(0, chunkCount).parallel()
+                .mapToObj(chunk -> decode(rows, chunk * chunkSize, Math.min(size, (chunk + 1) * chunkSize),
+                        chunk * chunkSize))
+                .collect(Collectors.toList()));
+        List<Object> result = new ArrayList<>(size);
+        for (List<Object> chunk : chunks) {
+            result.addAll(chunk);
+        }
+        report(start, size, chunkCount, readNanos, System.nanoTime() - start - readNanos);
+        return result;
+    }
+
+    private int chunkSize(int size) {
+        return Math.max(MIN_CHUNK_SIZE, (size + parallelism * CHUNKS_PER_THREAD - 1)
+                / (parallelism * CHUNKS_PER_THREAD));
+    }
+
+    private <T> T run(Callable<T> task) {
+        String tableName = tableManager.getTableName();
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading " + tableName, e);
+        } catch (ExecutionException e) {
+            Metrics.recordError(tableManager.getStorageEngine().getPath(), tableName, Metrics.Operation.LOAD,
+                    e.getCause());
+            throw new IllegalStateException("Failed to load table " + tableName, e.getCause());
+        }
+    }
+
+    // Empty rows are stored nulls; any other row that decodes to null fails the load
+    private List<Object> decode(List<byte[]> rows, int from, int to, int firstPosition) {
+        List<Object> objects = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            byte[] bytes = rows.get(i);
+            Object obj = tableManager.byteToObject(bytes);
+            if (obj == null && bytes.length > 0) {
+                throw new IllegalStateException("Row " + (firstPosition + i - from) + " of table "
+                        + tableManager.getTableName() + " cannot be decoded");
+            }
+            objects.add(obj);
+        }
+        return objects;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public long getLastLoadMillis() {
+        return lastLoadNanos / 1000000;
+    }
+
+    public long getLastLoadNanos() {
+        return lastLoadNanos;
+    }
+
+    // Summed over all chunks, so with several threads it can exceed the wall time
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    public long getLastDecodeNanos() {
+        return lastDecodeNanos;
+    }
+
+    public int getLastRowCount() {
+        return lastRowCount;
+    }
+
+    public int getLastChunkCount() {
+        return lastChunkCount;
+    }
+
+    public void close() {
+        pool.shutdown();
+    }
+
+    private void report(long start, int rows, int chunks, long readNanos, long decodeNanos) {
+        lastLoadNanos = System.nanoTime() - start;
+        lastReadNanos = readNanos;
+        lastDecodeNanos = decodeNanos;
+        lastRowCount = rows;
+        lastChunkCount = chunks;
+        Metrics.recordOperation(tableManager.getStorageEngine().getPath(), tableManager.getTableName(),
+                Metrics.Operation.LOAD, start, rows, 0);
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Row ids and ordinals of a table in ordinal (list) order
+public class RowIdIndex {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private int[] ids;
+    private long[] ordinals;
+    private int size;
+    // Unique across indexes; changes whenever a row is added or removed
+    private long version;
+
+    public RowIdIndex() {
+        this(new int[16], new long[16], 0);
+    }
+
+    public RowIdIndex(int[] ids, long[] ordinals, int size) {
+        this.ids = ids;
+        this.ordinals = ordinals;
+        this.size = size;
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int get(int position) {
+        if (position < 0 || position >= size) {
+            return -1;
+        }
+        return ids[position];
+    }
+
+    public synchronized int[] getIds() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    public synchronized long[] getOrdinals() {
+        return Arrays.copyOf(ordinals, size);
+    }
+
+    // Ids and ordinals copied together, for readers that must not see a write in between
+    public synchronized RowIdIndex copy() {
+        return new RowIdIndex(Arrays.copyOf(ids, Math.max(16, size)), Arrays.copyOf(ordinals, Math.max(16, size)), size);
+    }
+
+    public synchronized long getOrdinal(int position) {
+        return ordinals[position];
+    }
+
+    public synchronized long getLastOrdinal() {
+        return size == 0 ? 0 : ordinals[size - 1];
+    }
+
+    public synchronized void append(int id, long ordinal) {
+        insert(size, id, ordinal);
+    }
+
+    public synchronized void insert(int position, int id, long ordinal) {
+        if (size == ids.length) {
+            int capacity = Math.max(16, size + (size >> 1));
+            ids = Arrays.copyOf(ids, capacity);
+            ordinals = Arrays.copyOf(ordinals, capacity);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        System.arraycopy(ordinals, position, ordinals, position + 1, size - position);
+        ids[position] = id;
+        ordinals[position] = ordinal;
+        size++;
+        version = VERSIONS.incrementAndGet();
+    }
+
+    public synchronized void setOrdinal(int position, long ordinal) {
+        ordinals[position] = ordinal;
+    }
+
+    public synchronized int removeAt(int position) {
+        if (position < 0 || position >= size) {
+            return -1;
+        }
+        int id = ids[position];
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        System.arraycopy(ordinals, position + 1, ordinals, position, size - position - 1);
+        size--;
+        version = VERSIONS.incrementAndGet();
+        return id;
+    }
+
+    public synchronized boolean remove(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // One compaction pass instead of a scan per id
+    public synchronized void removeAll(int[] removedIds) {
+        if (removedIds.length == 0) {
+            return;
+        }
+        int[] sorted = removedIds.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (Arrays.binarySearch(sorted, ids[i]) < 0) {
+                ids[count] = ids[i];
+                ordinals[count] = ordinals[i];
+                count++;
+            }
+        }
+        if (count != size) {
+            size = count;
+            version = VERSIONS.incrementAndGet();
+        }
+    }
+}
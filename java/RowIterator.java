@@ -0,0 +1,131 @@
+import java.sql.Blob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+public class RowIterator implements RowScan {
+
+    private final String databasePath;
+    private final String tableName;
+    private Statement statement;
+    private ResultSet resultSet;
+    private Runnable onClose;
+    private byte[] next;
+    private int rowCount;
+    private long byteCount;
+    private int[] ids;
+    private long[] ordinals;
+    private boolean complete;
+
+    public RowIterator(Statement statement, ResultSet resultSet) {
+        this(statement, resultSet, null);
+    }
+
+    public RowIterator(Statement statement, ResultSet resultSet, Runnable onClose) {
+        this(null, null, statement, resultSet, false, onClose);
+    }
+
+    // With collectIds the result set also has nId and ord columns, gathered into a row index.
+    // The path and table name are where read errors are reported.
+    public RowIterator(String databasePath, String tableName, Statement statement, ResultSet resultSet,
+            boolean collectIds, Runnable onClose) {
+        this.databasePath = databasePath;
+        this.tableName = tableName;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.onClose = onClose;
+        if (collectIds) {
+            ids = new int[1024];
+            ordinals = new long[1024];
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (resultSet == null) {
+            return false;
+        }
+
+        try {
+            if (resultSet.next()) {
+                if (ids != null) {
+                    if (rowCount == ids.length) {
+                        ids = Arrays.copyOf(ids, rowCount * 2);
+                        ordinals = Arrays.copyOf(ordinals, rowCount * 2);
+                    }
+                    ids[rowCount] = resultSet.getInt("nId");
+                    ordinals[rowCount] = resultSet.getLong("ord");
+                }
+                Blob blob = resultSet.getBlob("data");
+                next = blob.getBytes(1, (int) blob.length());
+                blob.free();
+                rowCount++;
+                byteCount += next.length;
+                return true;
+            }
+            complete = true;
+        } catch (SQLException e) {
+            close();
+            Metrics.recordError(databasePath, tableName, Metrics.Operation.SCAN, e);
+            // Ending quietly here would pass a partly read table off as the whole of it
+            throw new IllegalStateException("Failed to read table " + tableName, e);
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public byte[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        byte[] result = next;
+        next = null;
+        return result;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    // True once the scan has run to the end without an error
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // Ids and ordinals of all rows once the scan has run to the end; null before or without collectIds
+    public RowIdIndex getRowIdIndex() {
+        return complete && ids != null ? new RowIdIndex(ids, ordinals, rowCount) : null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            Metrics.recordError(databasePath, tableName, Metrics.Operation.SCAN, e);
+        } finally {
+            resultSet = null;
+            statement = null;
+            if (onClose != null) {
+                Runnable action = onClose;
+                onClose = null;
+                action.run();
+            }
+        }
+    }
+}
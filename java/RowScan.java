@@ -0,0 +1,8 @@
+import java.util.Iterator;
+
+// Forward-only pass over the stored rows of a table, in list order
+public interface RowScan extends Iterator<byte[]>, AutoCloseable {
+
+    @Override
+    void close();
+}
@@ -0,0 +1,152 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stored rows of a table at one point in time: magic, version, Derby table id,
+ * change sequence, row count, then (nId, length, data) per row in list order,
+ * followed by a CRC32 of everything before it. Every change to the table up to the
+ * sequence is in the rows. Written to a temporary file and renamed, so a crash
+ * leaves either the old snapshot or the new one.
+ */
+public class Snapshot {
+
+    private static final int MAGIC = 0x53444253;
+    private static final int VERSION = 2;
+
+    private final String tableId;
+    private final long changeSequence;
+    private final int[] ids;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final ByteBuffer data;
+
+    private Snapshot(String tableId, long changeSequence, int[] ids, int[] offsets, int[] lengths, ByteBuffer data) {
+        this.tableId = tableId;
+        this.changeSequence = changeSequence;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.data = data;
+    }
+
+    public static void write(Path file, String tableId, long changeSequence, int[] ids, List<byte[]> rows)
+            throws IOException {
+        if (ids.length != rows.size()) {
+            throw new IllegalArgumentException("ids: " + ids.length + ", rows: " + rows.size());
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(tableId);
+            out.writeLong(changeSequence);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                byte[] row = rows.get(i);
+                out.writeInt(ids[i]);
+                out.writeInt(row.length);
+                out.write(row);
+            }
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the file; null if there is none, IOException if it is damaged
+    public static Snapshot read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 26 || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + file + " has an invalid size: " + channel.size());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int end = buffer.capacity() - 4;
+        ByteBuffer body = buffer.duplicate();
+        body.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(end)) {
+            throw new IOException("Snapshot " + file + " is damaged: checksum mismatch");
+        }
+
+        ByteBuffer in = buffer.duplicate();
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Snapshot " + file + " has an unknown format");
+        }
+        byte[] tableId = new byte[in.getShort() & 0xFFFF];
+        in.get(tableId);
+        long changeSequence = in.getLong();
+        int count = in.getInt();
+        if (count < 0 || count > (end - in.position()) / 8) {
+            throw new IOException("Snapshot " + file + " has an invalid row count: " + count);
+        }
+        int[] ids = new int[count];
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = in.getInt();
+            lengths[i] = in.getInt();
+            offsets[i] = in.position();
+            if (lengths[i] < 0 || lengths[i] > end - offsets[i]) {
+                throw new IOException("Snapshot " + file + " has an invalid row length at row " + i);
+            }
+            in.position(offsets[i] + lengths[i]);
+        }
+        if (in.position() != end) {
+            throw new IOException("Snapshot " + file + " has trailing data");
+        }
+        // writeUTF output is plain UTF-8 for the ASCII ids Derby uses
+        return new Snapshot(new String(tableId, StandardCharsets.UTF_8), changeSequence, ids, offsets, lengths,
+                buffer);
+    }
+
+    public String getTableId() {
+        return tableId;
+    }
+
+    public long getChangeSequence() {
+        return changeSequence;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public byte[] getRow(int row) {
+        ByteBuffer source = data.duplicate();
+        source.position(offsets[row]);
+        byte[] bytes = new byte[lengths[row]];
+        source.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,107 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class StatementCache {
+
+    private final Connection connection;
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private final Queue<String> pendingEvictions = new ConcurrentLinkedQueue<>();
+    private volatile long hits;
+    private volatile long misses;
+
+    public StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.capacity) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public PreparedStatement prepare(String tableName, String operation, String sql) throws SQLException {
+        return prepare(tableName, operation, sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepare(String tableName, String operation, String sql, int autoGeneratedKeys)
+            throws SQLException {
+        String evicted;
+        while ((evicted = pendingEvictions.poll()) != null) {
+            evict(evicted);
+        }
+        
+        String key = tableName.toUpperCase() + ":" + operation;
+        PreparedStatement preparedStatement = statements.get(key);
+        if (preparedStatement != null && !preparedStatement.isClosed()) {
+            hits++;
+            return preparedStatement;
+        }
+
+        misses++;
+        preparedStatement = connection.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, preparedStatement);
+        return preparedStatement;
+    }
+
+    public void evict(String tableName) {
+        String prefix = tableName.toUpperCase() + ":";
+        Iterator<Map.Entry<String, PreparedStatement>> iterator = statements.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PreparedStatement> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                closeQuietly(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    public void requestEvict(String tableName) {
+        pendingEvictions.add(tableName);
+    }
+
+    public void close() {
+        for (PreparedStatement preparedStatement : statements.values()) {
+            closeQuietly(preparedStatement);
+        }
+        statements.clear();
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    private static void closeQuietly(PreparedStatement preparedStatement) {
+        try {
+            preparedStatement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
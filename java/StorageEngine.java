@@ -0,0 +1,42 @@
+import java.util.List;
+
+/**
+ * Row storage used by TableManager: named tables of opaque byte[] rows in list order.
+ * Rows are addressed by position; ids are stable handles used by change sets.
+ * Write methods return false and read methods return an empty result on failure.
+ */
+public interface StorageEngine {
+
+    String getPath();
+
+    boolean isTableExist(String tableName);
+
+    boolean createTable(String tableName);
+
+    boolean deleteTable(String tableName);
+
+    int getTableSize(String tableName);
+
+    int getIdByIndex(String tableName, int index);
+
+    boolean writeData(String tableName, byte[] bytes);
+
+    boolean writeDataBatch(String tableName, List<byte[]> rows, int batchSize);
+
+    boolean insertData(String tableName, int index, byte[] bytes);
+
+    boolean overwriteDataByIndex(String tableName, int index, byte[] bytes);
+
+    boolean deleteDataByIndex(String tableName, int index);
+
+    // insertedPositions are final list positions in ascending order; null appends all inserted rows.
+    // deleteAll removes every row first, as part of the same change set.
+    boolean writeChanges(String tableName, boolean deleteAll, int[] deletedIds, int[] updatedIds,
+            List<byte[]> updatedRows, List<byte[]> insertedRows, int[] insertedPositions, int batchSize);
+
+    List<byte[]> readDataInRange(String tableName, int startIndex, int endIndex);
+
+    RowScan iterateData(String tableName);
+
+    void close();
+}
@@ -0,0 +1,236 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Stored rows of a table as they are in the database: magic, version, then (length, data)
+ * per row in list order, a -1 length, the row count and a CRC32 of everything before it.
+ * Rows are never decoded, so a dump moves between databases at disk speed.
+ */
+public class TableDump {
+
+    private static final int MAGIC = 0x53444244;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int END = -1;
+
+    private TableDump() {
+    }
+
+    // Written to a temporary file that only finish() moves into place
+    public static Writer create(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    public static Reader open(Path file) throws IOException {
+        return new Reader(file);
+    }
+
+    public static class Writer implements Closeable {
+
+        private final Path file;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long rowCount;
+        private long byteCount;
+        private boolean finished;
+
+        private Writer(Path file) throws IOException {
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+        }
+
+        public void write(byte[] row) throws IOException {
+            if (buffer.remaining() < 4 + row.length) {
+                flush();
+            }
+            buffer.putInt(row.length);
+            if (row.length > buffer.remaining()) {
+                // Larger than the buffer: checksummed and written straight from the array
+                flush();
+                ByteBuffer source = ByteBuffer.wrap(row);
+                crc.update(row, 0, row.length);
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            } else {
+                buffer.put(row);
+            }
+            rowCount++;
+            byteCount += row.length;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        public void finish() throws IOException {
+            if (buffer.remaining() < 12) {
+                flush();
+            }
+            buffer.putInt(END);
+            buffer.putLong(rowCount);
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        // Without finish() the partial dump is discarded
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads a dump row by row. next() returns false after the last row, once the row count
+     * and checksum have been checked; a damaged or truncated dump throws IOException.
+     */
+    public static class Reader implements Closeable {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long bufferOffset;
+        private long rowCount;
+        private long rowOffset;
+        private byte[] row;
+
+        private Reader(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            buffer.flip();
+            if (readInt() != MAGIC || readInt() != VERSION) {
+                channel.close();
+                throw new IOException("Dump " + file + " has an unknown format");
+            }
+        }
+
+        public boolean next() throws IOException {
+            int length = readInt();
+            if (length == END) {
+                long count = readLong();
+                fill(4);
+                int expected = (int) crc.getValue();
+                if (buffer.getInt() != expected || count != rowCount) {
+                    throw new IOException("Dump " + file + " is damaged: checksum mismatch");
+                }
+                if (buffer.hasRemaining() || channel.position() != channel.size()) {
+                    throw new IOException("Dump " + file + " has trailing data");
+                }
+                row = null;
+                return false;
+            }
+            if (length < 0 || length > channel.size() - position()) {
+                throw new IOException("Dump " + file + " has an invalid row length at row " + rowCount);
+            }
+
+            rowOffset = position();
+            row = new byte[length];
+            int buffered = Math.min(length, buffer.remaining());
+            buffer.get(row, 0, buffered);
+            if (buffered < length) {
+                ByteBuffer target = ByteBuffer.wrap(row, buffered, length - buffered);
+                while (target.hasRemaining()) {
+                    if (channel.read(target) < 0) {
+                        throw new IOException("Dump " + file + " is truncated");
+                    }
+                }
+                bufferOffset += length - buffered;
+            }
+            crc.update(row, 0, length);
+            rowCount++;
+            return true;
+        }
+
+        public byte[] getRow() {
+            return row;
+        }
+
+        // File offset of the current row's data, as Derby's LOB import expects it
+        public long getRowOffset() {
+            return rowOffset;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private long position() {
+            return bufferOffset + buffer.position();
+        }
+
+        private int readInt() throws IOException {
+            fill(4);
+            checksum(4);
+            return buffer.getInt();
+        }
+
+        private long readLong() throws IOException {
+            fill(8);
+            checksum(8);
+            return buffer.getLong();
+        }
+
+        private void checksum(int length) {
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.limit(bytes.position() + length);
+            crc.update(bytes);
+        }
+
+        private void fill(int length) throws IOException {
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            bufferOffset += buffer.position();
+            buffer.compact();
+            while (buffer.position() < length) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Dump " + file + " is truncated");
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -1,21 +1,91 @@
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class TableManager {
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+    
     private String tableName;
-    private Database db;
+    private StorageEngine db;
+    private final boolean ownsEngine;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private Codec codec = Codecs.JAVA;
+    private volatile Compressor compressor;
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private final CompressionStats compressionStats = new CompressionStats();
+    private final TableMetrics metrics;
+    private final Map<String, KeyIndex> indexes = new LinkedHashMap<>();
+    private volatile KeyIndex[] indexArray = new KeyIndex[0];
+    private volatile ParallelLoader loader;
+    // Row index version the list positions of this manager's last load, refresh or write match;
+    // -1 once another writer may have moved rows in between
+    private volatile long rowIdVersion = -1;
     
     public TableManager(String tableName) {
+        this(tableName, Codecs.JAVA);
+    }
+    
+    public TableManager(String tableName, Codec codec) {
+        this(tableName, codec, false);
+    }
+    
+    // The engine can be shared by several tables; close() leaves it open
+    public TableManager(String tableName, Codec codec, StorageEngine engine) {
+        this(tableName, codec, engine, false, false);
+    }
+    
+    // Takes a reference to the shared Database for the path and credentials; close() gives it back
+    public TableManager(String tableName, Codec codec, String path, String user, String password) {
+        this(tableName, codec, Database.shared(path, user, password), true, false);
+    }
+    
+    // Keyed tables hold ObjectMap entries: keyHash, keyData and data columns
+    TableManager(String tableName, Codec codec, boolean keyed) {
+        this(tableName, codec, Database.shared(), true, keyed);
+    }
+    
+    // Keyed table in a database the caller owns; close() leaves it open
+    TableManager(String tableName, Codec codec, Database database, boolean keyed) {
+        this(tableName, codec, database, false, keyed);
+    }
+    
+    private TableManager(String tableName, Codec codec, StorageEngine engine, boolean ownsEngine, boolean keyed) {
         this.tableName = tableName.toUpperCase();
-        this.db = new Database();
+        this.codec = codec;
+        this.db = engine;
+        this.ownsEngine = ownsEngine;
+        this.metrics = Metrics.get(db.getPath(), this.tableName);
         
         if (!db.isTableExist(this.tableName)) {
-            db.createTable(this.tableName);
+            if (keyed) {
+                database().createMapTable(this.tableName);
+            } else {
+                db.createTable(this.tableName);
+            }
+        } else if (db instanceof Database && !database().migrateTable(this.tableName)) {
+            failOpen("Cannot migrate table " + this.tableName + " to the current layout");
+        }
+        if (db instanceof Database) {
+            Map<Integer, byte[]> dictionaries = database().readDictionaries(this.tableName);
+            if (dictionaries == null) {
+                failOpen("Cannot read the compression dictionaries of table " + this.tableName);
+            }
+            dictionaries.values().forEach(DeflateCompressor::registerDictionary);
         }
     }
     
@@ -38,7 +108,76 @@ public class TableManager {
     
   
     public boolean add(Object obj) {
-        return db.writeData(tableName, objectToByte(obj));
+        KeyIndex[] keyIndexes = indexArray;
+        byte[] bytes = objectToByte(obj);
+        if (keyIndexes.length == 0) {
+            return trackRowIds(() -> db.writeData(tableName, bytes));
+        }
+        Object[] keys = extractKeys(keyIndexes, obj);
+        return trackRowIds(() -> database().writeData(tableName, bytes, columns(keyIndexes), keys));
+    }
+    
+    public boolean addAll(Collection<?> objects) {
+        if (objects.isEmpty()) {
+            return false;
+        }
+        
+        List<byte[]> rows = objects.parallelStream()
+                .map(this::objectToByte)
+                .collect(Collectors.toList());
+        KeyIndex[] keyIndexes = indexArray;
+        if (keyIndexes.length == 0) {
+            return trackRowIds(() -> db.writeDataBatch(tableName, rows, batchSize));
+        }
+        List<Object[]> keys = extractKeys(keyIndexes, objects);
+        return trackRowIds(() -> database().writeDataBatch(tableName, rows, columns(keyIndexes), keys, batchSize));
+    }
+    
+    public boolean applyChanges(int[] removedIndexes, int[] updatedIndexes, List<?> updatedObjects,
+            List<?> insertedObjects) {
+        return applyChanges(removedIndexes, updatedIndexes, updatedObjects, null, insertedObjects);
+    }
+    
+    public boolean applyChanges(int[] removedIndexes, int[] updatedIndexes, List<?> updatedObjects,
+            int[] insertedIndexes, List<?> insertedObjects) {
+        return applyChanges(false, removedIndexes, updatedIndexes, updatedObjects, insertedIndexes, insertedObjects);
+    }
+    
+    // insertedIndexes are positions in the resulting list, ascending; null appends.
+    // deleteAll empties the table first, in the same transaction as the other changes.
+    public boolean applyChanges(boolean deleteAll, int[] removedIndexes, int[] updatedIndexes, List<?> updatedObjects,
+            int[] insertedIndexes, List<?> insertedObjects) {
+        int[] removedIds = resolveIds(removedIndexes);
+        int[] updatedIds = resolveIds(updatedIndexes);
+        if (removedIds == null || updatedIds == null) {
+            return false;
+        }
+        
+        List<byte[]> updatedRows = updatedObjects.parallelStream()
+                .map(this::objectToByte)
+                .collect(Collectors.toList());
+        List<byte[]> insertedRows = insertedObjects.parallelStream()
+                .map(this::objectToByte)
+                .collect(Collectors.toList());
+        KeyIndex[] keyIndexes = indexArray;
+        if (keyIndexes.length == 0) {
+            return trackRowIds(() -> db.writeChanges(tableName, deleteAll, removedIds, updatedIds, updatedRows,
+                    insertedRows, insertedIndexes, batchSize));
+        }
+        List<Object[]> updatedKeys = extractKeys(keyIndexes, updatedObjects);
+        List<Object[]> insertedKeys = extractKeys(keyIndexes, insertedObjects);
+        return trackRowIds(() -> database().writeChanges(tableName, deleteAll, removedIds, updatedIds, updatedRows,
+                insertedRows, insertedIndexes, columns(keyIndexes), updatedKeys, insertedKeys, batchSize));
+    }
+    
+    public boolean insert(int index, Object obj) {
+        KeyIndex[] keyIndexes = indexArray;
+        byte[] bytes = objectToByte(obj);
+        if (keyIndexes.length == 0) {
+            return trackRowIds(() -> db.insertData(tableName, index, bytes));
+        }
+        Object[] keys = extractKeys(keyIndexes, obj);
+        return trackRowIds(() -> database().insertData(tableName, index, bytes, columns(keyIndexes), keys));
     }
     
     public Object remove(int index) {
@@ -47,7 +186,7 @@ public class TableManager {
         }
         
         Object oldValue = get(index);
-        boolean success = db.deleteDataByIndex(tableName, index);
+        boolean success = trackRowIds(() -> db.deleteDataByIndex(tableName, index));
         
         return success ? oldValue : null;
     }
@@ -59,7 +198,11 @@ public class TableManager {
         }
         
         Object oldValue = get(index);
-        boolean success = db.overwriteDataByIndex(tableName, index, objectToByte(element));
+        KeyIndex[] keyIndexes = indexArray;
+        boolean success = keyIndexes.length == 0
+                ? db.overwriteDataByIndex(tableName, index, objectToByte(element))
+                : database().overwriteDataByIndex(tableName, index, objectToByte(element), columns(keyIndexes),
+                        extractKeys(keyIndexes, element));
         
         return success ? oldValue : null;
     }
@@ -70,14 +213,160 @@ public class TableManager {
     }
     
  
+    // Removes every row in one transaction, keeping the table and its key columns
+    public boolean deleteAll() {
+        return applyChanges(true, new int[0], new int[0], Collections.emptyList(), null, Collections.emptyList());
+    }
+    
     public void clear() {
         db.deleteTable(tableName);
         db.createTable(tableName);
+        for (KeyIndex index : indexArray) {
+            database().addKeyColumn(tableName, index.getColumn(), index.getSqlType());
+        }
+        // Dropping the table purged its dictionary, which the rows written from now on still need
+        saveDictionary(compressor);
+    }
+    
+    /**
+     * Registers a key extractor. The first registration creates an indexed column. Every
+     * registration refills it for the existing rows, since rows written while no extractor
+     * was registered, or with a different one, have missing or stale keys.
+     */
+    public synchronized boolean addIndex(String name, Class<?> keyType, Function<Object, ?> extractor) {
+        KeyIndex index = new KeyIndex(name, keyType, extractor);
+        if (!database().getKeyColumns(tableName).contains(index.getColumn())
+                && !database().addKeyColumn(tableName, index.getColumn(), index.getSqlType())) {
+            return false;
+        }
+        indexes.put(name, index);
+        updateIndexArrays();
+        return rebuildIndex(name);
+    }
+    
+    public synchronized boolean removeIndex(String name) {
+        KeyIndex index = indexes.remove(name);
+        if (index == null) {
+            return false;
+        }
+        updateIndexArrays();
+        return database().dropKeyColumn(tableName, index.getColumn());
+    }
+    
+    public synchronized boolean rebuildIndex(String name) {
+        KeyIndex index = requireIndex(name);
+        List<Object[]> keys = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        try (RowScan rows = db.iterateData(tableName)) {
+            int position = 0;
+            while (rows.hasNext()) {
+                Object obj = byteToObject(rows.next());
+                keys.add(new Object[] {index.extract(obj)});
+                positions.add(position++);
+            }
+        }
+        int[] ids = resolveIds(positions.stream().mapToInt(Integer::intValue).toArray());
+        if (ids == null) {
+            return false;
+        }
+        return database().writeKeysBatch(tableName, ids, new String[] {index.getColumn()}, keys, batchSize);
+    }
+    
+    // Writes the stored rows, undecoded, to a dump file; -1 on failure
+    public long exportTo(String file) {
+        return database().exportTable(tableName, Paths.get(file));
+    }
+    
+    // Appends the rows of a dump, then refills the key columns of the registered indexes
+    public long importFrom(String file) {
+        long rows = database().importTable(tableName, Paths.get(file), batchSize);
+        if (rows > 0) {
+            for (String name : getIndexNames()) {
+                if (!rebuildIndex(name)) {
+                    return -1;
+                }
+            }
+        }
+        return rows;
+    }
+    
+    public List<Object> findBy(String name, Object key) {
+        return toObjects(database().findData(tableName, requireIndex(name).getColumn(), key));
+    }
+    
+    public List<Object> rangeBy(String name, Object from, Object to) {
+        return toObjects(database().findDataInRange(tableName, requireIndex(name).getColumn(), from, to));
+    }
+    
+    public synchronized List<String> getIndexNames() {
+        return new ArrayList<>(indexes.keySet());
+    }
+    
+    private synchronized KeyIndex requireIndex(String name) {
+        KeyIndex index = indexes.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("No index " + name + " on table " + tableName);
+        }
+        return index;
+    }
+    
+    private void updateIndexArrays() {
+        indexArray = indexes.values().toArray(new KeyIndex[0]);
+    }
+    
+    private static String[] columns(KeyIndex[] keyIndexes) {
+        String[] columns = new String[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            columns[i] = keyIndexes[i].getColumn();
+        }
+        return columns;
+    }
+    
+    private static Object[] extractKeys(KeyIndex[] keyIndexes, Object obj) {
+        Object[] keys = new Object[keyIndexes.length];
+        for (int i = 0; i < keyIndexes.length; i++) {
+            keys[i] = keyIndexes[i].extract(obj);
+        }
+        return keys;
+    }
+    
+    private static List<Object[]> extractKeys(KeyIndex[] keyIndexes, Collection<?> objects) {
+        List<Object[]> keys = new ArrayList<>(objects.size());
+        for (Object obj : objects) {
+            keys.add(extractKeys(keyIndexes, obj));
+        }
+        return keys;
+    }
+    
+    private List<Object> toObjects(List<byte[]> byteData) {
+        List<Object> result = new ArrayList<>(byteData.size());
+        for (byte[] bytes : byteData) {
+            Object obj = byteToObject(bytes);
+            if (obj != null) {
+                result.add(obj);
+            }
+        }
+        return result;
     }
     
    
     public void close() {
-        db.close();
+        setLoadParallelism(1);
+        if (ownsEngine) {
+            db.close();
+        }
+    }
+    
+    public Transaction beginTransaction() {
+        return database().beginTransaction();
+    }
+    
+    public boolean commit() {
+        return database().commit();
+    }
+    
+    public boolean rollback() {
+        return database().rollback();
     }
   
     public boolean dispose() {
@@ -90,9 +379,136 @@ public class TableManager {
         return tableName;
     }
     
+    public Codec getCodec() {
+        return codec;
+    }
+    
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+    
+    public Compressor getCompressor() {
+        return compressor;
+    }
+    
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+    
+    public void setCompression(Compressor compressor) {
+        setCompression(compressor, DEFAULT_COMPRESSION_THRESHOLD);
+    }
+    
+    // Rows shorter than minSize are stored as is; null turns compression off. A preset
+    // dictionary is stored with the table first, so the rows stay readable after a restart
+    public void setCompression(Compressor compressor, int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Compression threshold must not be negative: " + minSize);
+        }
+        if (!saveDictionary(compressor)) {
+            throw new IllegalStateException("Cannot store the compression dictionary of table " + tableName);
+        }
+        this.compressionThreshold = minSize;
+        this.compressor = compressor;
+    }
+    
+    // Stores a Deflate preset dictionary with the table, so other processes can read the rows
+    private boolean saveDictionary(Compressor compressor) {
+        if (!(compressor instanceof DeflateCompressor) || !(db instanceof Database)) {
+            return true;
+        }
+        DeflateCompressor deflate = (DeflateCompressor) compressor;
+        byte[] dictionary = deflate.getDictionary();
+        return dictionary == null || database().saveDictionary(tableName, deflate.getDictionaryId(), dictionary);
+    }
+    
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+    
+    public byte[] trainDictionary(int sampleRows, int maxSize) {
+        List<byte[]> samples = new ArrayList<>();
+        try (RowScan rows = db.iterateData(tableName)) {
+            while (rows.hasNext() && samples.size() < sampleRows) {
+                samples.add(Compressors.decompress(rows.next()));
+            }
+        } catch (IOException e) {
+            Metrics.recordError(db.getPath(), tableName, null, e);
+        }
+        return Compressors.trainDictionary(samples, maxSize);
+    }
+    
+    public int getLoadParallelism() {
+        ParallelLoader loader = this.loader;
+        return loader != null ? loader.getParallelism() : 1;
+    }
+    
+    // Above 1, getAll() and full cache loads read the table in chunks on that many threads
+    public synchronized void setLoadParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        if (parallelism == getLoadParallelism()) {
+            return;
+        }
+        if (loader != null) {
+            loader.close();
+        }
+        loader = parallelism > 1 ? new ParallelLoader(this, parallelism) : null;
+    }
+    
+    public ParallelLoader getLoader() {
+        return loader;
+    }
+    
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+    
    
     public List<Object> getAll() {
-        List<byte[]> byteData = db.readData(tableName);
+        ParallelLoader loader = this.loader;
+        // Other connections would wait on the row locks of an open transaction
+        if (loader != null && !(db instanceof Database && ((Database) db).isInTransaction())) {
+            return loader.load();
+        }
+        return readAll();
+    }
+    
+    List<Object> readAll() {
+        try (Stream<Object> objects = stream()) {
+            return objects.collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+    
+    public Stream<Object> stream() {
+        RowScan rows = db.iterateData(tableName);
+        Spliterator<byte[]> spliterator = Spliterators.spliteratorUnknownSize(rows,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false)
+                .map(this::byteToObject)
+                .filter(Objects::nonNull)
+                .onClose(rows::close);
+    }
+ 
+    // Stored rows as they are in the table, still encoded and compressed
+    RowScan iterateRows() {
+        return db.iterateData(tableName);
+    }
+ 
+    public List<Object> getRange(int startIndex, int endIndex) {
+        if (startIndex < 0 || endIndex < startIndex || endIndex >= size()) {
+            return new ArrayList<>();
+        }
+        
+        List<byte[]> byteData = db.readDataInRange(tableName, startIndex, endIndex);
         List<Object> result = new ArrayList<>();
         
         for (byte[] bytes : byteData) {
@@ -104,14 +520,40 @@ public class TableManager {
         
         return result;
     }
- 
-    public List<Object> getRange(int startIndex, int endIndex) {
-        if (startIndex < 0 || endIndex < startIndex || endIndex >= size()) {
+    
+    private int[] resolveIds(int[] indexes) {
+        int[] ids = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            ids[i] = db.getIdByIndex(tableName, indexes[i]);
+            if (ids[i] < 0) {
+                return null;
+            }
+        }
+        return ids;
+    }
+    
+    public List<Object> getPage(int startIndex, int count) {
+        if (startIndex < 0 || count <= 0) {
             return new ArrayList<>();
         }
         
-        List<byte[]> byteData = db.readDataInRange(tableName, startIndex, endIndex);
-        List<Object> result = new ArrayList<>();
+        List<byte[]> byteData = db.readDataInRange(tableName, startIndex, startIndex + count - 1);
+        List<Object> result = new ArrayList<>(byteData.size());
+        
+        for (byte[] bytes : byteData) {
+            result.add(byteToObject(bytes));
+        }
+        
+        return result;
+    }
+    
+    public PageCursor openCursor(int startIndex, int pageSize) {
+        return database().openCursor(tableName, startIndex, pageSize);
+    }
+    
+    public List<Object> nextPage(PageCursor cursor) {
+        List<byte[]> byteData = cursor.next();
+        List<Object> result = new ArrayList<>(byteData.size());
         
         for (byte[] bytes : byteData) {
             Object obj = byteToObject(bytes);
@@ -124,40 +566,141 @@ public class TableManager {
     }
     
   
-    private Object byteToObject(byte[] bytes) {
+    Object byteToObject(byte[] bytes) {
         if (bytes == null || bytes.length == 0) {
             return null;
         }
         
+        long start = System.nanoTime();
         Object obj = null;
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-             ObjectInputStream ois = new ObjectInputStream(bis)) {
-            obj = ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+        try {
+            obj = Codecs.decode(bytes);
+        } catch (IOException | ClassNotFoundException | IllegalArgumentException e) {
+            Metrics.recordError(db.getPath(), tableName, null, e);
         }
+        Metrics.recordSerialization(metrics, false, start, bytes.length);
         return obj;
     }
     
    
-    private byte[] objectToByte(Object obj) {
+    byte[] objectToByte(Object obj) {
         if (obj == null) {
             return new byte[0];
         }
         
+        long start = System.nanoTime();
         byte[] bytes = new byte[0];
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-            oos.writeObject(obj);
-            bytes = bos.toByteArray();
+        try {
+            bytes = Codecs.encode(codec, obj);
+            Compressor compressor = this.compressor;
+            if (compressor != null) {
+                long compressStart = System.nanoTime();
+                byte[] compressed = bytes.length >= compressionThreshold
+                        ? Compressors.compress(compressor, bytes) : null;
+                compressionStats.record(bytes.length, compressed != null ? compressed.length : bytes.length,
+                        compressed != null, System.nanoTime() - compressStart);
+                if (compressed != null) {
+                    bytes = compressed;
+                }
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.recordError(db.getPath(), tableName, null, e);
         }
+        Metrics.recordSerialization(metrics, true, start, bytes.length);
         return bytes;
     }
     
    
+    public TableMetrics getMetrics() {
+        return metrics;
+    }
+    
     public Database getDatabase() {
+        return database();
+    }
+    
+    public StorageEngine getStorageEngine() {
         return db;
     }
+    
+    // Secondary indexes, transactions, cursors and keyed tables are only available on Derby
+    // A constructor that fails gives back the engine reference it took
+    private void failOpen(String message) {
+        if (ownsEngine) {
+            db.close();
+        }
+        throw new IllegalStateException(message);
+    }
+    
+    /**
+     * Runs a write that adds or removes rows. The row index version it leaves is kept only if
+     * the index was still at this manager's version before the write, so no other writer in
+     * this JVM moved rows that this manager's list positions do not know about. The table
+     * lock is held throughout; under group commit a follower would hold it while the leader
+     * waits for it, so there the version is simply dropped.
+     */
+    private boolean trackRowIds(BooleanSupplier write) {
+        if (!(db instanceof Database) || database().isGroupCommit()) {
+            rowIdVersion = -1;
+            return write.getAsBoolean();
+        }
+        Database database = database();
+        ReentrantLock lock = database.lockTable(tableName);
+        try {
+            long expected = rowIdVersion;
+            boolean aligned = expected >= 0 && database.getRowIdVersion(tableName) == expected;
+            boolean written = write.getAsBoolean();
+            rowIdVersion = aligned && written ? database.getRowIdVersion(tableName) : -1;
+            return written;
+        } finally {
+            database.unlockTable(lock);
+        }
+    }
+    
+    /**
+     * Called once a load that started at the given change sequence has filled the caller's
+     * list: if nothing was written since, the row index matches the list.
+     */
+    void alignRowIds(long sequence) {
+        rowIdVersion = -1;
+        if (sequence < 0 || !(db instanceof Database)) {
+            return;
+        }
+        Database database = database();
+        ReentrantLock lock = database.lockTable(tableName);
+        try {
+            if (database.getChangeSequence(tableName) == sequence) {
+                rowIdVersion = database.getRowIdVersion(tableName);
+            }
+        } finally {
+            database.unlockTable(lock);
+        }
+    }
+    
+    /**
+     * Merges a change set into the row index, as Database.mergeChanges does, but only while
+     * the index is still at this manager's version. Null otherwise: another writer in this
+     * JVM has moved rows, so the index positions no longer match the caller's list.
+     */
+    int[] mergeChanges(ChangeSet changes, int expectedSize) {
+        Database database = database();
+        ReentrantLock lock = database.lockTable(tableName);
+        try {
+            long expected = rowIdVersion;
+            int[] sources = expected >= 0 && database.getRowIdVersion(tableName) == expected
+                    ? database.mergeChanges(tableName, changes, expectedSize) : null;
+            rowIdVersion = sources != null ? database.getRowIdVersion(tableName) : -1;
+            return sources;
+        } finally {
+            database.unlockTable(lock);
+        }
+    }
+    
+    private Database database() {
+        if (!(db instanceof Database)) {
+            throw new UnsupportedOperationException("Table " + tableName + " is stored in "
+                    + db.getClass().getSimpleName() + ", which does not support this operation");
+        }
+        return (Database) db;
+    }
 }
\ No newline at end of file
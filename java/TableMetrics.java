@@ -0,0 +1,167 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TableMetrics implements TableMetricsMBean {
+
+    private final String databasePath;
+    private final String tableName;
+    private final Map<Metrics.Operation, LatencyHistogram> latencies = new EnumMap<>(Metrics.Operation.class);
+    private final LatencyHistogram serialization = new LatencyHistogram();
+    private final LatencyHistogram deserialization = new LatencyHistogram();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile WeakReference<ObjectCache<?>> cache;
+
+    TableMetrics(String databasePath, String tableName) {
+        this.databasePath = databasePath;
+        this.tableName = tableName;
+        for (Metrics.Operation operation : Metrics.Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    void recordOperation(Metrics.Operation operation, long nanos, int rows, long bytes) {
+        latencies.get(operation).record(nanos);
+        if (operation.isWrite()) {
+            rowsWritten.addAndGet(rows);
+            bytesWritten.addAndGet(bytes);
+        } else {
+            rowsRead.addAndGet(rows);
+            bytesRead.addAndGet(bytes);
+        }
+    }
+
+    void recordSerialization(boolean encode, long nanos) {
+        (encode ? serialization : deserialization).record(nanos);
+    }
+
+    void recordError() {
+        errors.incrementAndGet();
+    }
+
+    public void bindCache(ObjectCache<?> cache) {
+        this.cache = cache == null ? null : new WeakReference<ObjectCache<?>>(cache);
+    }
+
+    public LatencyHistogram getLatency(Metrics.Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public LatencyHistogram getSerializationLatency() {
+        return serialization;
+    }
+
+    public LatencyHistogram getDeserializationLatency() {
+        return deserialization;
+    }
+
+    @Override
+    public String getDatabasePath() {
+        return databasePath;
+    }
+
+    @Override
+    public String getTableName() {
+        return tableName;
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getSerializations() {
+        return serialization.getCount();
+    }
+
+    @Override
+    public double getSerializationMeanMicros() {
+        return serialization.getMeanNanos() / 1000.0;
+    }
+
+    @Override
+    public long getDeserializations() {
+        return deserialization.getCount();
+    }
+
+    @Override
+    public double getDeserializationMeanMicros() {
+        return deserialization.getMeanNanos() / 1000.0;
+    }
+
+    @Override
+    public int getCacheSize() {
+        ObjectCache<?> bound = boundCache();
+        return bound == null ? 0 : bound.size();
+    }
+
+    // A heap cache holds every row, so it never misses
+    @Override
+    public double getCacheHitRatio() {
+        ObjectCache<?> bound = boundCache();
+        if (bound == null) {
+            return 0;
+        }
+        long hits = bound.getHits();
+        long total = hits + bound.getMisses();
+        return total == 0 ? 1.0 : (double) hits / total;
+    }
+
+    @Override
+    public String[] getOperationLatencies() {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<Metrics.Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                result.add(entry.getKey() + ": " + entry.getValue());
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        serialization.reset();
+        deserialization.reset();
+        rowsRead.set(0);
+        rowsWritten.set(0);
+        bytesRead.set(0);
+        bytesWritten.set(0);
+        errors.set(0);
+    }
+
+    private ObjectCache<?> boundCache() {
+        WeakReference<ObjectCache<?>> ref = cache;
+        return ref == null ? null : ref.get();
+    }
+}
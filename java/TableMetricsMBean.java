@@ -0,0 +1,32 @@
+public interface TableMetricsMBean {
+
+    String getDatabasePath();
+
+    String getTableName();
+
+    long getRowsRead();
+
+    long getRowsWritten();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getErrors();
+
+    long getSerializations();
+
+    double getSerializationMeanMicros();
+
+    long getDeserializations();
+
+    double getDeserializationMeanMicros();
+
+    int getCacheSize();
+
+    double getCacheHitRatio();
+
+    String[] getOperationLatencies();
+
+    void reset();
+}
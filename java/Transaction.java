@@ -0,0 +1,45 @@
+import java.util.List;
+
+public class Transaction implements AutoCloseable {
+
+    private final Database database;
+    private final List<Runnable> rollbackActions;
+    private boolean completed;
+
+    Transaction(Database database, List<Runnable> rollbackActions) {
+        this.database = database;
+        this.rollbackActions = rollbackActions;
+    }
+
+    public boolean commit() {
+        complete();
+        return database.commit();
+    }
+
+    public void rollback() {
+        complete();
+        database.rollback();
+    }
+
+    public void onRollback(Runnable action) {
+        rollbackActions.add(action);
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public void close() {
+        if (!completed) {
+            rollback();
+        }
+    }
+
+    private void complete() {
+        if (completed) {
+            throw new IllegalStateException("Transaction is already completed");
+        }
+        completed = true;
+    }
+}
@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncWriterTest {
+
+    private TableManager manager;
+
+    @BeforeEach
+    void open() {
+        manager = new TableManager("queued", Codecs.JAVA);
+        manager.clear();
+    }
+
+    @AfterEach
+    void close() {
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void flushWritesEverythingQueuedInOrder() {
+        ObjectStore<Integer> store = new ObjectStore<>(manager);
+        store.enableAsyncWrites(64);
+        List<Integer> expected = new ArrayList<>();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            expected.add(i);
+            futures.add(store.addAsync(i));
+        }
+        assertEquals(500, store.size());
+        store.setAsync(0, -1);
+        expected.set(0, -1);
+        store.removeAsync(1);
+        expected.remove(1);
+        store.flush();
+
+        for (CompletableFuture<Boolean> future : futures) {
+            assertTrue(future.isDone());
+            assertTrue(future.join());
+        }
+        assertEquals(expected, manager.getAll());
+        assertEquals(expected, new ArrayList<>(store));
+        store.disableAsyncWrites();
+        assertFalse(store.isAsyncWrites());
+    }
+
+    @Test
+    void failedWriteReachesTheErrorHandler() {
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        try (AsyncWriter writer = new AsyncWriter(manager, 8)) {
+            writer.setErrorHandler(errors::add);
+            CompletableFuture<Boolean> added = writer.add("a");
+            CompletableFuture<Boolean> outOfRange = writer.set(5, "b");
+            writer.flush();
+
+            assertTrue(added.join());
+            assertThrows(CompletionException.class, outOfRange::join);
+            assertEquals(1, writer.getFailedWrites());
+            assertEquals(1, errors.size());
+            assertSame(errors.get(0), writer.getLastError());
+        }
+        assertEquals(Arrays.asList("a"), manager.getAll());
+    }
+
+    @Test
+    void closedWriterRejectsWrites() {
+        AsyncWriter writer = new AsyncWriter(manager, 8);
+        writer.add("a");
+        writer.close();
+
+        assertEquals(Arrays.asList("a"), manager.getAll());
+        assertThrows(IllegalStateException.class, () -> writer.add("b"));
+    }
+}
@@ -0,0 +1,138 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+class CodecsTest {
+
+    @Test
+    void binaryRoundTripsSupportedTypes() throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        map.put("list", new ArrayList<>(Arrays.asList(1, 2L, "x", null, new Date(5), 1.5d, 'c', true)));
+        map.put("set", new HashSet<>(Arrays.asList("a", "b")));
+        map.put("decimal", new BigDecimal("1.50"));
+        map.put("integer", new BigInteger("123456789012345678901234567890"));
+
+        assertEquals(map, roundTrip(Codecs.BINARY, map));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) roundTrip(Codecs.BINARY, new byte[] {1, 2, 3}));
+        assertEquals(new Point(4, "e"), roundTrip(Codecs.BINARY, new Point(4, "e")));
+        // Classes without a binary form fall back to Java serialization
+        assertEquals(new Bean(7, "n"), roundTrip(Codecs.BINARY, new Bean(7, "n")));
+    }
+
+    @Test
+    void jacksonRoundTripsBeans() throws Exception {
+        assertEquals(new Bean(3, "json"), roundTrip(Codecs.JACKSON, new Bean(3, "json")));
+    }
+
+    @Test
+    void javaRowsHaveNoHeader() throws Exception {
+        byte[] bytes = Codecs.encode(Codecs.JAVA, "plain");
+        assertEquals(0xAC, bytes[0] & 0xFF);
+        assertEquals(JavaCodec.ID, Codecs.getCodecId(bytes));
+        assertEquals("plain", Codecs.decode(bytes));
+    }
+
+    @Test
+    void tableReadsRowsOfEveryCodec() {
+        TableManager manager = new TableManager("codecs", Codecs.JAVA);
+        try {
+            manager.clear();
+            manager.add(new Bean(1, "java"));
+            manager.setCodec(Codecs.BINARY);
+            manager.add(new Bean(2, "binary"));
+            manager.setCodec(Codecs.JACKSON);
+            manager.add(new Bean(3, "jackson"));
+
+            List<Object> expected = Arrays.asList(new Bean(1, "java"), new Bean(2, "binary"), new Bean(3, "jackson"));
+            assertEquals(expected, manager.getAll());
+        } finally {
+            manager.dispose();
+            manager.close();
+        }
+    }
+
+    private static Object roundTrip(Codec codec, Object value) throws IOException, ClassNotFoundException {
+        byte[] bytes = Codecs.encode(codec, value);
+        assertEquals(codec.getId(), Codecs.getCodecId(bytes));
+        return Codecs.decode(bytes);
+    }
+
+    public static class Bean implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public int number;
+        public String name;
+
+        public Bean() {
+        }
+
+        Bean(int number, String name) {
+            this.number = number;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Bean && ((Bean) obj).number == number && Objects.equals(((Bean) obj).name, name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(number, name);
+        }
+    }
+
+    public static class Point implements Externalizable {
+
+        private int x;
+        private String label;
+
+        public Point() {
+        }
+
+        Point(int x, String label) {
+            this.x = x;
+            this.label = label;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeInt(x);
+            out.writeObject(label);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+            x = in.readInt();
+            label = (String) in.readObject();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Point && ((Point) obj).x == x && Objects.equals(((Point) obj).label, label);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(x, label);
+        }
+    }
+}
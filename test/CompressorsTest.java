@@ -0,0 +1,158 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class CompressorsTest {
+
+    @Test
+    void lzRoundTripsAllShapesOfInput() throws IOException {
+        Random random = new Random(7);
+        List<byte[]> inputs = new ArrayList<>();
+        inputs.add(new byte[0]);
+        inputs.add(new byte[] {42});
+        inputs.add(new byte[1000]);
+        byte[] noise = new byte[5000];
+        random.nextBytes(noise);
+        inputs.add(noise);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("row ").append(i % 37).append(" of a repetitive table; ");
+        }
+        inputs.add(text.toString().getBytes(StandardCharsets.UTF_8));
+        for (int n = 0; n < 500; n++) {
+            byte[] bytes = new byte[random.nextInt(2000)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (n % 2 == 0 ? random.nextInt(4) : i % 11);
+            }
+            inputs.add(bytes);
+        }
+
+        for (byte[] input : inputs) {
+            byte[] compressed = Compressors.LZ.compress(input);
+            assertArrayEquals(input, Compressors.LZ.decompress(compressed, 0, compressed.length, input.length));
+        }
+    }
+
+    @Test
+    void lzRejectsDamagedInput() throws IOException {
+        byte[] input = new byte[300];
+        Arrays.fill(input, (byte) 'a');
+        byte[] compressed = Compressors.LZ.compress(input);
+
+        assertThrows(IOException.class,
+                () -> Compressors.LZ.decompress(compressed, 0, compressed.length - 1, input.length));
+        assertThrows(IOException.class,
+                () -> Compressors.LZ.decompress(compressed, 0, compressed.length, input.length + 1));
+        byte[] badOffset = compressed.clone();
+        badOffset[2] = (byte) 0xFF;
+        badOffset[3] = (byte) 0x7F;
+        assertThrows(IOException.class,
+                () -> Compressors.LZ.decompress(badOffset, 0, badOffset.length, input.length));
+    }
+
+    @Test
+    void framesNameTheirCompressor() throws IOException {
+        byte[] row = "abcabcabcabcabcabcabcabcabcabcabcabcabcabcabc".getBytes(StandardCharsets.US_ASCII);
+        for (Compressor compressor : Arrays.asList(Compressors.DEFLATE, Compressors.DEFLATE_FAST, Compressors.LZ)) {
+            byte[] frame = Compressors.compress(compressor, row);
+            assertNotNull(frame);
+            assertTrue(Compressors.isCompressed(frame));
+            assertArrayEquals(row, Compressors.decompress(frame));
+        }
+        // A row that would not shrink is stored as is
+        assertNull(Compressors.compress(Compressors.LZ, new byte[] {1, 2, 3}));
+    }
+
+    @Test
+    void tableReadsRowsOfEveryCompressor() {
+        TableManager manager = new TableManager("compressed", Codecs.BINARY);
+        try {
+            manager.clear();
+            List<Object> expected = new ArrayList<>();
+            Compressor[] compressors = {null, Compressors.DEFLATE, Compressors.LZ, Compressors.DEFLATE_FAST};
+            for (int i = 0; i < compressors.length; i++) {
+                manager.setCompression(compressors[i], 16);
+                String row = "value " + i + " repeated, repeated, repeated, repeated";
+                manager.add(row);
+                manager.add("short");
+                expected.add(row);
+                expected.add("short");
+            }
+            assertEquals(expected, manager.getAll());
+        } finally {
+            manager.dispose();
+            manager.close();
+        }
+    }
+
+    @Test
+    void dictionaryIsStoredWithTheTable() {
+        TableManager manager = new TableManager("dictionary", Codecs.JAVA);
+        try {
+            manager.clear();
+            List<String> rows = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                rows.add("customer " + i + " lives at some street in some city");
+            }
+            manager.addAll(rows);
+            byte[] dictionary = manager.trainDictionary(200, 4096);
+            DeflateCompressor compressor = new DeflateCompressor(6, dictionary);
+            manager.setCompression(compressor, 8);
+            manager.add("customer 9999 lives at some street in some city");
+
+            Map<Integer, byte[]> stored = manager.getDatabase().readDictionaries("dictionary");
+            assertEquals(1, stored.size());
+            assertArrayEquals(dictionary, stored.get(compressor.getDictionaryId()));
+        } finally {
+            manager.close();
+        }
+
+        TableManager reopened = new TableManager("dictionary", Codecs.JAVA);
+        try {
+            assertEquals("customer 9999 lives at some street in some city", reopened.get(200));
+            assertTrue(reopened.dispose());
+            assertTrue(reopened.getDatabase().readDictionaries("dictionary").isEmpty());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void dictionaryIsStoredAgainAfterClear() {
+        byte[] dictionary = "customer lives at some street in some city".getBytes(StandardCharsets.UTF_8);
+        DeflateCompressor compressor = new DeflateCompressor(6, dictionary);
+        TableManager manager = new TableManager("dictionary", Codecs.JAVA);
+        try {
+            manager.clear();
+            manager.setCompression(compressor, 8);
+            manager.clear();
+            manager.add("customer 1 lives at some street in some city");
+
+            Map<Integer, byte[]> stored = manager.getDatabase().readDictionaries("dictionary");
+            assertArrayEquals(dictionary, stored.get(compressor.getDictionaryId()));
+        } finally {
+            manager.close();
+        }
+
+        TableManager reopened = new TableManager("dictionary", Codecs.JAVA);
+        try {
+            assertEquals("customer 1 lives at some street in some city", reopened.get(0));
+        } finally {
+            reopened.dispose();
+            reopened.close();
+        }
+    }
+}
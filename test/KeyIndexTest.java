@@ -0,0 +1,111 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KeyIndexTest {
+
+    private TableManager manager;
+
+    @BeforeEach
+    void open() {
+        manager = new TableManager("people", Codecs.JAVA);
+        manager.clear();
+        manager.addAll(Arrays.asList(new Person("ann", 30), new Person("bob", 25), new Person("cid", 30)));
+    }
+
+    @AfterEach
+    void close() {
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void indexCoversExistingAndNewRows() {
+        assertTrue(manager.addIndex("age", Integer.class, obj -> ((Person) obj).age));
+
+        assertEquals(Arrays.asList("ann", "cid"), names(manager.findBy("age", 30)));
+        manager.add(new Person("dan", 30));
+        manager.insert(0, new Person("eve", 30));
+        manager.set(1, new Person("ann", 31));
+        manager.remove(3);
+
+        assertEquals(Arrays.asList("eve", "dan"), names(manager.findBy("age", 30)));
+        // Ordered by key, then by list position
+        assertEquals(Arrays.asList("bob", "eve", "dan", "ann"), names(manager.rangeBy("age", 20, 31)));
+        assertEquals(Arrays.asList("bob"), names(manager.rangeBy("age", null, 29)));
+    }
+
+    @Test
+    void keyColumnsAreReadFromTheCurrentSchemaOnly() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:DataStore");
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE KEYTEST.PEOPLE (nId INTEGER, data BLOB, K_AGE INTEGER)");
+        }
+        try {
+            Database database = manager.getDatabase();
+            assertTrue(database.getKeyColumns("people").isEmpty());
+
+            assertTrue(manager.addIndex("age", Integer.class, obj -> ((Person) obj).age));
+            assertEquals(Collections.singleton("K_AGE"), database.getKeyColumns("people"));
+            assertEquals(Arrays.asList("ann", "cid"), names(manager.findBy("age", 30)));
+        } finally {
+            try (Connection connection = DriverManager.getConnection("jdbc:derby:DataStore");
+                    Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE KEYTEST.PEOPLE");
+                statement.executeUpdate("DROP SCHEMA KEYTEST RESTRICT");
+            }
+        }
+    }
+
+    @Test
+    void reRegisteringAnIndexRefillsItsColumn() {
+        assertTrue(manager.addIndex("key", String.class, obj -> ((Person) obj).name));
+        manager.close();
+
+        manager = new TableManager("people", Codecs.JAVA);
+        assertTrue(manager.addIndex("key", String.class, obj -> ((Person) obj).name.toUpperCase()));
+
+        assertEquals(Arrays.asList("bob"), names(manager.findBy("key", "BOB")));
+        assertTrue(manager.findBy("key", "bob").isEmpty());
+    }
+
+    @Test
+    void removedIndexIsGone() {
+        assertTrue(manager.addIndex("age", Integer.class, obj -> ((Person) obj).age));
+        assertTrue(manager.removeIndex("age"));
+
+        assertFalse(manager.getIndexNames().contains("age"));
+        assertFalse(manager.removeIndex("age"));
+    }
+
+    private static List<String> names(List<Object> people) {
+        return people.stream().map(obj -> ((Person) obj).name).collect(Collectors.toList());
+    }
+
+    static class Person implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+        final int age;
+
+        Person(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LogStorageEngineTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    Path directory;
+
+    private LogStorageEngine engine;
+
+    @BeforeEach
+    void open() {
+        engine = new LogStorageEngine(directory.toString(), SEGMENT_SIZE);
+        engine.createTable("rows");
+    }
+
+    @AfterEach
+    void close() {
+        engine.close();
+    }
+
+    @Test
+    void recoversEveryKindOfWriteAfterReopen() {
+        engine.writeDataBatch("rows", rows(1, 2, 3, 4), 10);
+        engine.insertData("rows", 1, row(10));
+        engine.overwriteDataByIndex("rows", 3, row(30));
+        engine.deleteDataByIndex("rows", 0);
+        List<byte[]> expected = engine.readDataInRange("rows", 0, 9);
+
+        reopen();
+
+        assertRows(expected, engine.readDataInRange("rows", 0, 9));
+        assertRows(rows(10, 2, 30, 4), expected);
+    }
+
+    @Test
+    void dropsATornTailAndKeepsAppending() throws IOException {
+        engine.writeData("rows", row(1));
+        engine.writeData("rows", row(2));
+        engine.close();
+        // Damage the data byte of the second record: header 21 bytes, data 1 byte each
+        try (FileChannel channel = FileChannel.open(directory.resolve("ROWS").resolve("0000000001.seg"),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {99}), 22 + 21);
+        }
+
+        reopen();
+        assertRows(rows(1), engine.readDataInRange("rows", 0, 9));
+
+        engine.writeData("rows", row(3));
+        reopen();
+        assertRows(rows(1, 3), engine.readDataInRange("rows", 0, 9));
+    }
+
+    @Test
+    void compactionReclaimsSupersededRecords() {
+        engine.setCompactionRatio(0.99);
+        engine.writeDataBatch("rows", rows(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), 10);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10; i++) {
+                engine.overwriteDataByIndex("rows", i, row(round));
+            }
+        }
+        engine.insertData("rows", 0, row(100));
+        int segments = engine.getSegmentCount("rows");
+        long garbage = engine.getGarbageBytes("rows");
+
+        assertTrue(engine.compact("rows"));
+
+        // Only the compaction's BEGIN and COMMIT markers are left over
+        assertTrue(engine.getGarbageBytes("rows") < garbage / 100, "garbage " + engine.getGarbageBytes("rows"));
+        assertTrue(engine.getSegmentCount("rows") < segments);
+        List<byte[]> expected = new ArrayList<>(rows(100));
+        expected.addAll(Collections.nCopies(10, row(49)));
+        assertRows(expected, engine.readDataInRange("rows", 0, 20));
+        reopen();
+        assertRows(expected, engine.readDataInRange("rows", 0, 20));
+    }
+
+    @Test
+    void changeSetWithAnUnknownIdChangesNothing() {
+        engine.writeDataBatch("rows", rows(1, 2), 10);
+        int first = engine.getIdByIndex("rows", 0);
+
+        assertFalse(engine.writeChanges("rows", false, new int[0], new int[] {first, 999}, rows(9, 8), rows(7),
+                null, 10));
+        assertFalse(engine.writeChanges("rows", false, new int[] {999}, new int[0], rows(), rows(7), null, 10));
+
+        assertRows(rows(1, 2), engine.readDataInRange("rows", 0, 9));
+    }
+
+    @Test
+    void changeSetAppliesDeletesUpdatesAndInserts() {
+        engine.writeDataBatch("rows", rows(1, 2, 3), 10);
+        int first = engine.getIdByIndex("rows", 0);
+        int second = engine.getIdByIndex("rows", 1);
+
+        assertTrue(engine.writeChanges("rows", false, new int[] {first}, new int[] {second}, rows(20), rows(0, 4),
+                new int[] {0, 3}, 10));
+        assertRows(rows(0, 20, 3, 4), engine.readDataInRange("rows", 0, 9));
+
+        assertTrue(engine.writeChanges("rows", true, new int[0], new int[0], rows(), rows(5), null, 10));
+        assertRows(rows(5), engine.readDataInRange("rows", 0, 9));
+        reopen();
+        assertRows(rows(5), engine.readDataInRange("rows", 0, 9));
+    }
+
+    private void reopen() {
+        engine.close();
+        engine = new LogStorageEngine(directory.toString(), SEGMENT_SIZE);
+    }
+
+    private static byte[] row(int value) {
+        return new byte[] {(byte) value};
+    }
+
+    private static List<byte[]> rows(int... values) {
+        List<byte[]> rows = new ArrayList<>();
+        for (int value : values) {
+            rows.add(row(value));
+        }
+        return rows;
+    }
+
+    private static void assertRows(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), "row " + i + " of " + Arrays.toString(actual.toArray()));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+
+    private TableManager manager;
+
+    @BeforeEach
+    void open() {
+        manager = new TableManager("measured", Codecs.JAVA);
+        manager.clear();
+        manager.getMetrics().reset();
+    }
+
+    @AfterEach
+    void close() {
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void countsRowsAndLatencies() {
+        TableMetrics metrics = manager.getMetrics();
+        assertTrue(manager.addAll(Arrays.asList("a", "b", "c")));
+        assertTrue(manager.add("d"));
+        assertEquals(4, manager.getAll().size());
+
+        assertEquals(4, metrics.getRowsWritten());
+        assertTrue(metrics.getBytesWritten() > 0);
+        assertTrue(metrics.getRowsRead() >= 4);
+        assertEquals(4, metrics.getSerializations());
+        assertTrue(metrics.getDeserializations() >= 4);
+        assertEquals(1, metrics.getLatency(Metrics.Operation.WRITE).getCount());
+        assertEquals(1, metrics.getLatency(Metrics.Operation.WRITE_BATCH).getCount());
+        assertTrue(metrics.getOperationLatencies().length >= 3);
+        assertSame(metrics, Metrics.get(metrics.getDatabasePath(), "measured"));
+    }
+
+    @Test
+    void registersTheTableWithJmx() throws Exception {
+        TableMetrics metrics = manager.getMetrics();
+        ObjectName name = new ObjectName("SerialDB:type=Table,database="
+                + ObjectName.quote(metrics.getDatabasePath()) + ",name=MEASURED");
+
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    void reportsErrorsToListeners() {
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        List<String> tables = new ArrayList<>();
+        MetricsListener listener = new MetricsListener() {
+            @Override
+            public void onError(String databasePath, String tableName, Metrics.Operation operation, Throwable error) {
+                if (manager.getMetrics().getDatabasePath().equals(databasePath)) {
+                    tables.add(tableName);
+                    errors.add(error);
+                }
+            }
+        };
+        Metrics.addListener(listener);
+        try {
+            manager.add(new Object());
+        } finally {
+            Metrics.removeListener(listener);
+        }
+
+        assertEquals(1, errors.size());
+        assertEquals(Arrays.asList("MEASURED"), tables);
+        assertEquals(1, manager.getMetrics().getErrors());
+    }
+
+    @Test
+    void logsErrorsThroughTheDefaultListener() {
+        List<LogRecord> records = new CopyOnWriteArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger("SerialDB");
+        logger.addHandler(handler);
+        try {
+            manager.add(new Object());
+            assertEquals(1, records.size());
+            assertEquals(Level.WARNING, records.get(0).getLevel());
+            assertTrue(records.get(0).getMessage().contains("MEASURED"));
+
+            Metrics.removeListener(Metrics.LOGGING_LISTENER);
+            try {
+                manager.add(new Object());
+            } finally {
+                Metrics.addListener(Metrics.LOGGING_LISTENER);
+            }
+            assertEquals(1, records.size());
+            assertEquals(2, manager.getMetrics().getErrors());
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MigrationTest {
+
+    private static final String URL = "jdbc:derby:DataStore;create=true";
+    private static final String[] TABLES = {"LEGACY", "OTHER.LEGACY", "UNRELATED", "NOTSTORE"};
+
+    @BeforeEach
+    void createOldTables() throws Exception {
+        dropTables();
+        try (Connection connection = DriverManager.getConnection(URL);
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE LEGACY (nId INTEGER PRIMARY KEY GENERATED ALWAYS AS IDENTITY"
+                    + " (START WITH 0, INCREMENT BY 1), data BLOB)");
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO LEGACY (data) VALUES (?)")) {
+                for (String value : Arrays.asList("a", "b", "c")) {
+                    insert.setBytes(1, Codecs.encode(Codecs.JAVA, value));
+                    insert.executeUpdate();
+                }
+            }
+            statement.executeUpdate("CREATE SCHEMA OTHER");
+            statement.executeUpdate("CREATE TABLE OTHER.LEGACY (nId INTEGER, data BLOB)");
+            statement.executeUpdate("CREATE TABLE UNRELATED (nId INTEGER, data BLOB)");
+            statement.executeUpdate("CREATE TABLE NOTSTORE (x INTEGER)");
+        }
+        // The tables were created behind the shared catalog's back
+        Database database = new Database();
+        database.invalidateTableCatalog();
+        database.close();
+    }
+
+    @AfterEach
+    void dropOldTables() throws SQLException {
+        dropTables();
+        Database database = new Database();
+        database.invalidateTableCatalog();
+        database.close();
+    }
+
+    @Test
+    void openingATableMigratesOnlyThatTable() throws SQLException {
+        TableManager manager = new TableManager("legacy", Codecs.JAVA);
+        try {
+            assertEquals(Arrays.asList("a", "b", "c"), manager.getAll());
+            manager.insert(1, "between");
+            manager.add("last");
+            assertEquals(Arrays.asList("a", "between", "b", "c", "last"), manager.getAll());
+
+            assertTrue(columns("APP", "LEGACY").containsAll(Arrays.asList("ORD", "SEQ")));
+            assertEquals(Arrays.asList("NID", "DATA"), columns("OTHER", "LEGACY"));
+            assertEquals(Arrays.asList("NID", "DATA"), columns("APP", "UNRELATED"));
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    void tableThatCannotBeMigratedFailsToOpen() throws SQLException {
+        assertThrows(IllegalStateException.class, () -> new TableManager("notstore", Codecs.JAVA));
+        assertEquals(Arrays.asList("X"), columns("APP", "NOTSTORE"));
+    }
+
+    private static List<String> columns(String schema, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection(URL);
+                ResultSet resultSet = connection.getMetaData().getColumns(null, schema, table, "%")) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("COLUMN_NAME"));
+            }
+        }
+        return columns;
+    }
+
+    private static void dropTables() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(URL);
+                Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                try {
+                    statement.executeUpdate("DROP TABLE " + table);
+                } catch (SQLException e) {
+                    // Not there yet
+                }
+            }
+            try {
+                statement.executeUpdate("DROP SCHEMA OTHER RESTRICT");
+            } catch (SQLException e) {
+                // Not there yet
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ObjectMapTest {
+
+    @TempDir
+    Path directory;
+
+    private Database database;
+
+    @BeforeEach
+    void open() {
+        database = new Database(directory.resolve("db").toString());
+    }
+
+    @AfterEach
+    void close() {
+        database.close();
+    }
+
+    @Test
+    void putGetRemove() {
+        ObjectMap<String, Integer> map = new ObjectMap<>("numbers", Codecs.BINARY, 16, database);
+        assertNull(map.put("one", 1));
+        assertNull(map.put("two", 2));
+        assertEquals(Integer.valueOf(1), map.put("one", 11));
+
+        assertEquals(2, map.size());
+        assertEquals(Integer.valueOf(11), map.get("one"));
+        assertTrue(map.containsKey("two"));
+        assertEquals(Integer.valueOf(2), map.remove("two"));
+        assertNull(map.remove("two"));
+        assertFalse(map.containsKey("two"));
+        map.close();
+    }
+
+    @Test
+    void valuesOutliveTheCacheAndTheMap() {
+        ObjectMap<Integer, String> map = new ObjectMap<>("uncached", Codecs.JAVA, 0, database);
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "value " + i);
+            expected.put(i, "value " + i);
+        }
+        map.close();
+
+        // close() leaves a passed-in database open
+        ObjectMap<Integer, String> reopened = new ObjectMap<>("uncached", Codecs.JAVA, 0, database);
+        assertEquals(expected, new HashMap<>(reopened));
+        assertEquals("value 42", reopened.get(42));
+        assertEquals(0, reopened.getCacheHits());
+        reopened.close();
+    }
+
+    @Test
+    void entrySetWritesThrough() {
+        ObjectMap<String, Integer> map = new ObjectMap<>("entries", Codecs.BINARY, 16, database);
+        map.put("a", 1);
+        map.put("b", 2);
+
+        Iterator<Map.Entry<String, Integer>> entries = map.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Integer> entry = entries.next();
+            if (entry.getKey().equals("a")) {
+                entry.setValue(10);
+            } else {
+                entries.remove();
+            }
+        }
+
+        assertEquals(1, map.size());
+        assertEquals(Integer.valueOf(10), map.get("a"));
+        map.clear();
+        assertTrue(map.isEmpty());
+        map.close();
+    }
+
+    @Test
+    void rejectsNegativeCacheSizeBeforeOpening() {
+        assertThrows(IllegalArgumentException.class, () -> new ObjectMap<String, String>("never", Codecs.BINARY, -1, database));
+        assertFalse(database.isTableExist("never"));
+    }
+}
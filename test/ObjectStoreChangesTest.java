@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ObjectStoreChangesTest {
+
+    private final List<ObjectStore<String>> stores = new ArrayList<>();
+    private TableManager manager;
+
+    @BeforeEach
+    void open() {
+        manager = new TableManager("changes");
+        manager.clear();
+    }
+
+    @AfterEach
+    void close() {
+        for (ObjectStore<String> store : stores) {
+            store.close();
+        }
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void savesSetsRemovesAndInserts() {
+        ObjectStore<String> store = store(true);
+        store.addAll(Arrays.asList("a", "b", "c", "d"));
+        store.saveChanges();
+
+        store.set(1, "B");
+        store.remove(2);
+        store.add(0, "first");
+        store.add("last");
+        store.saveChanges();
+
+        assertFalse(store.hasUnsavedChanges());
+        assertEquals(Arrays.asList("first", "a", "B", "d", "last"), manager.getAll());
+    }
+
+    @Test
+    void truncationReplacesTheTable() {
+        ObjectStore<String> store = store(true);
+        store.addAll(Arrays.asList("a", "b", "c"));
+        store.saveChanges();
+
+        store.clear();
+        store.add("x");
+        store.add("y");
+        store.saveChanges();
+
+        assertEquals(Arrays.asList("x", "y"), manager.getAll());
+    }
+
+    @Test
+    void truncationRollsBackWithItsTransaction() {
+        ObjectStore<String> store = store(true);
+        store.addAll(Arrays.asList("a", "b", "c"));
+        store.saveChanges();
+
+        store.clear();
+        store.add("x");
+        Transaction transaction = store.beginTransaction();
+        store.saveChanges();
+        transaction.rollback();
+
+        assertEquals(Arrays.asList("a", "b", "c"), manager.getAll());
+    }
+
+    @Test
+    void writeThroughClearEmptiesTheTable() {
+        ObjectStore<String> store = store(false);
+        store.addAll(Arrays.asList("a", "b"));
+        store.clear();
+        store.add("z");
+
+        assertEquals(Arrays.asList("z"), manager.getAll());
+    }
+
+    private ObjectStore<String> store(boolean deferredWrites) {
+        ObjectStore<String> store = new ObjectStore<>("changes", deferredWrites);
+        stores.add(store);
+        return store;
+    }
+}
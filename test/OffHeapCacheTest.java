@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class OffHeapCacheTest {
+
+    private TableManager manager;
+
+    @BeforeEach
+    void open() {
+        manager = new TableManager("offheap", Codecs.JAVA);
+        manager.clear();
+    }
+
+    @AfterEach
+    void close() {
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void evictedElementsAreReadBack() {
+        ObjectStore<String> store = new ObjectStore<>(manager, new OffHeapCache<>(manager, 2), false);
+        for (int i = 0; i < 10; i++) {
+            store.add("value " + i);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("value " + i, store.get(i));
+        }
+        assertEquals(10, manager.size());
+    }
+
+    @Test
+    void markDirtyWritesHotElements() {
+        ObjectStore<ArrayList<String>> store = new ObjectStore<>(manager, new OffHeapCache<>(manager, 2), false);
+        store.add(new ArrayList<>(Arrays.asList("a")));
+
+        store.get(0).add("b");
+        store.markDirty(0);
+
+        assertEquals(Arrays.asList("a", "b"), manager.get(0));
+        assertEquals(Arrays.asList("a", "b"), store.get(0));
+    }
+
+    @Test
+    void markDirtyRejectsEvictedElements() {
+        ObjectStore<ArrayList<String>> store = new ObjectStore<>(manager, new OffHeapCache<>(manager, 2), true);
+        for (int i = 0; i < 4; i++) {
+            store.add(new ArrayList<>(Arrays.asList("v" + i)));
+        }
+        ArrayList<String> first = store.get(0);
+        store.get(1);
+        store.get(2);
+        store.get(3);
+        first.add("changed");
+
+        assertThrows(IllegalStateException.class, () -> store.markDirty(0));
+
+        store.set(0, first);
+        store.saveChanges();
+        assertEquals(Arrays.asList("v0", "changed"), manager.get(0));
+    }
+}
@@ -0,0 +1,73 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PagedStoreTest {
+
+    private TableManager manager;
+
+    @BeforeEach
+    void open() {
+        manager = new TableManager("paged", Codecs.JAVA);
+        manager.clear();
+    }
+
+    @AfterEach
+    void close() {
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void keepsAtMostMaxPagesLoaded() {
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(i);
+        }
+        assertTrue(manager.addAll(rows));
+
+        PagedCache<Integer> cache = new PagedCache<>(manager, 10, 3);
+        cache.reload(manager);
+        assertEquals(100, cache.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, cache.get(i).intValue());
+            assertTrue(cache.getLoadedPages() <= 3);
+        }
+        assertEquals(rows, new ArrayList<>(cache));
+        assertTrue(cache.getMisses() >= 10);
+    }
+
+    @Test
+    void writesGoThroughToTheTable() {
+        ObjectStore<String> store = new ObjectStore<>(manager, 4, 2);
+        for (int i = 0; i < 20; i++) {
+            store.add("row" + i);
+        }
+        store.set(3, "three");
+        store.remove(0);
+        store.add(5, "inserted");
+
+        List<Object> stored = manager.getAll();
+        assertEquals(20, stored.size());
+        assertEquals("three", stored.get(2));
+        assertEquals("inserted", stored.get(5));
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(stored.get(i), store.get(i));
+        }
+    }
+
+    @Test
+    void pagedStoreHasNoDeferredMode() {
+        ObjectStore<String> store = new ObjectStore<>(manager, 4, 2);
+        assertTrue(store.isPaged());
+        assertThrows(UnsupportedOperationException.class, () -> store.setDeferredWrites(true));
+        assertThrows(UnsupportedOperationException.class, () -> store.enableAsyncWrites(16));
+    }
+}
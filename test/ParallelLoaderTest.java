@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelLoaderTest {
+
+    private static final int ROWS = 5000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsDerbyRowsInListOrder() {
+        TableManager manager = new TableManager("loaded", Codecs.BINARY);
+        try {
+            List<Integer> rows = fill(manager);
+            manager.insert(10, -1);
+            rows.add(10, -1);
+            manager.setLoadParallelism(4);
+
+            assertEquals(rows, manager.getAll());
+            assertTrue(manager.getLoader().getLastChunkCount() > 1);
+        } finally {
+            manager.dispose();
+            manager.close();
+        }
+    }
+
+    @Test
+    void loadsLogEngineRowsInListOrder() {
+        LogStorageEngine engine = new LogStorageEngine(directory.resolve("log").toString());
+        TableManager manager = new TableManager("loaded", Codecs.BINARY, engine);
+        try {
+            List<Integer> rows = fill(manager);
+            manager.setLoadParallelism(4);
+
+            assertEquals(rows, manager.getAll());
+        } finally {
+            manager.close();
+            engine.close();
+        }
+    }
+
+    @Test
+    void concurrentWritesNeverDuplicateOrDropRows() throws InterruptedException {
+        TableManager manager = new TableManager("moving", Codecs.BINARY);
+        TableManager writer = new TableManager("moving", Codecs.BINARY);
+        try {
+            fill(manager);
+            manager.setLoadParallelism(4);
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread thread = new Thread(() -> {
+                Random random = new Random(1);
+                int value = ROWS;
+                while (!stop.get()) {
+                    writer.insert(random.nextInt(writer.size()), value++);
+                    writer.remove(random.nextInt(writer.size()));
+                }
+            });
+            thread.start();
+            try {
+                for (int i = 0; i < 5; i++) {
+                    List<Object> rows = manager.getAll();
+                    assertEquals(rows.size(), new HashSet<>(rows).size());
+                    assertTrue(rows.size() == ROWS || rows.size() == ROWS + 1, "size " + rows.size());
+                }
+            } finally {
+                stop.set(true);
+                thread.join();
+            }
+        } finally {
+            writer.close();
+            manager.dispose();
+            manager.close();
+        }
+    }
+
+    @Test
+    void undecodableRowFailsTheLoad() {
+        TableManager manager = new TableManager("broken", Codecs.JAVA);
+        try {
+            fill(manager);
+            manager.getDatabase().writeData("broken", new byte[] {(byte) 0xAC, 0, 1, 2});
+            manager.setLoadParallelism(4);
+
+            assertThrows(IllegalStateException.class, manager::getAll);
+        } finally {
+            manager.dispose();
+            manager.close();
+        }
+    }
+
+    private static List<Integer> fill(TableManager manager) {
+        manager.clear();
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(i);
+        }
+        manager.addAll(rows);
+        return rows;
+    }
+}
@@ -0,0 +1,139 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RefreshTest {
+
+    @TempDir
+    Path directory;
+
+    private String path;
+    private ObjectStore<String> store;
+    private TableManager other;
+
+    @BeforeEach
+    void open() {
+        path = directory.resolve("db").toString();
+        store = new ObjectStore<>(new TableManager("shared", Codecs.JAVA, path, null, null), true);
+        store.addAll(Arrays.asList("a", "b", "c", "d"));
+        store.saveChanges();
+        other = new TableManager("shared", Codecs.JAVA, path, null, null);
+    }
+
+    @AfterEach
+    void close() {
+        other.close();
+        store.close();
+    }
+
+    @Test
+    void picksUpAnotherWritersChanges() {
+        other.set(1, "B");
+        other.remove(2);
+        other.insert(0, "first");
+        other.add("last");
+
+        store.refresh();
+
+        assertEquals(other.getAll(), new ArrayList<>(store));
+    }
+
+    @Test
+    void reloadsWhenAnotherWriterMovedRowsWithoutChangingTheSize() {
+        // Caught up first, so only the other writer's rows are in the next change set
+        store.refresh();
+        other.remove(0);
+        other.add("e");
+
+        store.refresh();
+
+        assertEquals(Arrays.asList("b", "c", "d", "e"), new ArrayList<>(store));
+    }
+
+    @Test
+    void mergesAnotherWritersUpdateAfterItsOwnWrites() {
+        store.refresh();
+        store.remove(0);
+        store.add("e");
+        store.saveChanges();
+        other.set(0, "B");
+
+        store.refresh();
+
+        assertEquals(Arrays.asList("B", "c", "d", "e"), new ArrayList<>(store));
+    }
+
+    @Test
+    void reloadsAfterTheTableWasCleared() {
+        other.clear();
+        other.add("only");
+
+        store.refresh();
+
+        assertEquals(Arrays.asList("only"), new ArrayList<>(store));
+    }
+
+    @Test
+    void discardsPendingDeferredChanges() {
+        store.add("unsaved");
+        assertTrue(store.hasUnsavedChanges());
+
+        store.refresh();
+
+        assertFalse(store.hasUnsavedChanges());
+        assertEquals(Arrays.asList("a", "b", "c", "d"), new ArrayList<>(store));
+    }
+
+    @Test
+    void readsOnlyRowsChangedSinceTheLastRefresh() {
+        Database database = other.getDatabase();
+        long sequence = database.getChangeSequence("shared");
+        other.set(3, "D");
+        other.remove(0);
+
+        ChangeSet delta = database.readChangesSince("shared", sequence);
+
+        assertEquals(1, delta.size());
+        assertEquals(1, delta.getDeletedIds().length);
+        assertFalse(delta.isReset());
+        store.refresh();
+        assertEquals(Arrays.asList("b", "c", "D"), new ArrayList<>(store));
+        assertTrue(database.readChangesSince("shared", delta.getSequence()).isEmpty());
+    }
+
+    @Test
+    void clearIsReportedAsAReset() {
+        Database database = other.getDatabase();
+        long sequence = database.getChangeSequence("shared");
+        other.clear();
+
+        ChangeSet delta = database.readChangesSince("shared", sequence);
+
+        assertTrue(delta.isReset());
+        assertNull(database.readChangesSince("missing", 0));
+    }
+
+    @Test
+    void positionsStayInListOrder() {
+        List<Object> expected = new ArrayList<>(other.getAll());
+        for (int i = 0; i < 5; i++) {
+            other.insert(i * 2, "inserted " + i);
+            expected.add(i * 2, "inserted " + i);
+        }
+
+        store.refresh();
+
+        assertEquals(expected, new ArrayList<>(store));
+    }
+}
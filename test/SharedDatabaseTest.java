@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SharedDatabaseTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void tablesOnOnePathShareOneDatabase() {
+        String path = directory.resolve("db").toString();
+        TableManager first = new TableManager("orders", Codecs.JAVA, path, null, null);
+        TableManager second = new TableManager("items", Codecs.JAVA, path, null, null);
+        Database database = first.getDatabase();
+        try {
+            assertSame(database, second.getDatabase());
+            assertTrue(database.isShared());
+            assertEquals(2, database.getReferenceCount());
+
+            first.close();
+            assertEquals(1, database.getReferenceCount());
+            assertTrue(second.add("still open"));
+            assertEquals(Arrays.asList("still open"), second.getAll());
+        } finally {
+            second.close();
+        }
+        assertEquals(0, database.getReferenceCount());
+
+        Database reopened = Database.shared(path);
+        try {
+            assertNotSame(database, reopened);
+            assertEquals(1, reopened.getReferenceCount());
+            assertTrue(reopened.isTableExist("items"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void extraCloseDoesNotReleaseAnotherReference() {
+        Database database = Database.shared(directory.resolve("db").toString());
+        Database other = Database.shared(directory.resolve("db").toString());
+        database.close();
+        other.close();
+        other.close();
+
+        assertEquals(0, database.getReferenceCount());
+        Database plain = new Database(directory.resolve("plain").toString());
+        try {
+            assertFalse(plain.isShared());
+        } finally {
+            plain.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SnapshotTest {
+
+    private static final String MARKER = "from snapshot";
+
+    @TempDir
+    Path directory;
+
+    private Path snapshotFile;
+    private List<Object> expected;
+
+    @BeforeEach
+    void fill() {
+        TableManager manager = manager();
+        manager.clear();
+        manager.close();
+        snapshotFile = directory.resolve("values.snapshot");
+        ObjectStore<String> store = new ObjectStore<>(manager(), snapshotFile.toString());
+        expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            store.add("value " + i);
+            expected.add("value " + i);
+        }
+        assertTrue(store.saveSnapshot());
+        store.close();
+    }
+
+    @AfterEach
+    void drop() {
+        TableManager manager = manager();
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void warmStartReadsTheSnapshot() throws IOException {
+        markFirstRow();
+
+        ObjectStore<String> store = new ObjectStore<>(manager(), snapshotFile.toString());
+        assertEquals(MARKER, store.get(0));
+        assertEquals(expected.subList(1, 100), store.subList(1, 100));
+        store.close();
+    }
+
+    @Test
+    void replaysRowsChangedAfterTheSnapshot() throws IOException {
+        markFirstRow();
+        TableManager other = manager();
+        other.set(5, "changed");
+        other.remove(10);
+        other.insert(20, "inserted");
+        other.add("appended");
+        List<Object> table = other.getAll();
+        other.close();
+
+        ObjectStore<String> store = new ObjectStore<>(manager(), snapshotFile.toString());
+        // The untouched first row still comes from the snapshot, everything else from the table
+        assertEquals(MARKER, store.get(0));
+        assertEquals(table.subList(1, table.size()), store.subList(1, store.size()));
+        assertEquals("changed", store.get(5));
+        assertEquals("appended", store.get(store.size() - 1));
+        store.close();
+    }
+
+    @Test
+    void damagedSnapshotFallsBackToTheTable() throws IOException {
+        byte[] bytes = Files.readAllBytes(snapshotFile);
+        bytes[bytes.length / 2] ^= 0x55;
+        Files.write(snapshotFile, bytes);
+
+        ObjectStore<String> store = new ObjectStore<>(manager(), snapshotFile.toString());
+        assertEquals(expected, new ArrayList<>(store));
+        store.close();
+    }
+
+    @Test
+    void clearedTableIsNotReadFromTheSnapshot() throws IOException {
+        markFirstRow();
+        TableManager other = manager();
+        other.clear();
+        other.add("only");
+        other.close();
+
+        ObjectStore<String> store = new ObjectStore<>(manager(), snapshotFile.toString());
+        assertEquals(1, store.size());
+        assertEquals("only", store.get(0));
+        store.close();
+    }
+
+    @Test
+    void snapshotOfAnotherTableIsIgnored() throws IOException {
+        markFirstRow();
+        TableManager other = new TableManager("others", Codecs.JAVA);
+        other.clear();
+        other.add("other row");
+
+        ObjectStore<String> store = new ObjectStore<>(other, snapshotFile.toString());
+        assertEquals(1, store.size());
+        assertEquals("other row", store.get(0));
+        store.dispose();
+        store.close();
+    }
+
+    @Test
+    void inPlaceUpdateDropsTheSnapshot() {
+        ObjectStore<String> store = new ObjectStore<>(manager(), snapshotFile.toString());
+        store.set(0, "updated");
+        assertFalse(Files.exists(snapshotFile));
+        store.close();
+        assertTrue(Files.exists(snapshotFile));
+
+        ObjectStore<String> reopened = new ObjectStore<>(manager(), snapshotFile.toString());
+        assertEquals("updated", reopened.get(0));
+        reopened.close();
+    }
+
+    private TableManager manager() {
+        return new TableManager("snapshotted", Codecs.JAVA);
+    }
+
+    // Rewrites the snapshot with a first row the table does not have, to see where rows come from
+    private void markFirstRow() throws IOException {
+        Snapshot snapshot = Snapshot.read(snapshotFile);
+        int[] ids = new int[snapshot.size()];
+        List<byte[]> rows = new ArrayList<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            ids[i] = snapshot.getId(i);
+            rows.add(snapshot.getRow(i));
+        }
+        rows.set(0, Codecs.encode(Codecs.JAVA, MARKER));
+        Snapshot.write(snapshotFile, snapshot.getTableId(), snapshot.getChangeSequence(), ids, rows);
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TableDumpTest {
+
+    @TempDir
+    Path directory;
+
+    private Path dump;
+    private TableManager source;
+    private TableManager target;
+
+    @BeforeEach
+    void open() {
+        dump = directory.resolve("table.dump");
+        source = new TableManager("source", Codecs.BINARY, directory.resolve("from").toString(), null, null);
+        target = new TableManager("target", Codecs.BINARY, directory.resolve("to").toString(), null, null);
+    }
+
+    @AfterEach
+    void close() {
+        source.close();
+        target.close();
+    }
+
+    @Test
+    void roundTripsIntoAnotherDatabase() {
+        List<Object> rows = fill();
+
+        assertEquals(rows.size(), source.exportTo(dump.toString()));
+        assertEquals(rows.size(), target.importFrom(dump.toString()));
+
+        assertEquals(rows, target.getAll());
+    }
+
+    @Test
+    void appendsToATableWithRows() {
+        List<Object> rows = fill();
+        target.add("existing");
+        source.exportTo(dump.toString());
+
+        assertEquals(rows.size(), target.importFrom(dump.toString()));
+
+        List<Object> expected = new ArrayList<>();
+        expected.add("existing");
+        expected.addAll(rows);
+        assertEquals(expected, target.getAll());
+    }
+
+    @Test
+    void damagedDumpIsRejectedWithoutWriting() throws IOException {
+        fill();
+        source.exportTo(dump.toString());
+        byte[] bytes = Files.readAllBytes(dump);
+        bytes[bytes.length / 2] ^= 0x55;
+        Files.write(dump, bytes);
+
+        assertEquals(-1, target.importFrom(dump.toString()));
+        assertEquals(0, target.size());
+    }
+
+    @Test
+    void readerChecksRowCountAndChecksum() throws IOException {
+        byte[] large = new byte[(1 << 20) + 100];
+        Arrays.fill(large, (byte) 7);
+        List<byte[]> rows = Arrays.asList(new byte[0], new byte[] {1, 2, 3}, large);
+        try (TableDump.Writer writer = TableDump.create(dump)) {
+            for (byte[] row : rows) {
+                writer.write(row);
+            }
+            writer.finish();
+        }
+
+        try (TableDump.Reader reader = TableDump.open(dump)) {
+            for (byte[] row : rows) {
+                assertTrue(reader.next());
+                assertArrayEquals(row, reader.getRow());
+            }
+            assertFalse(reader.next());
+            assertEquals(rows.size(), reader.getRowCount());
+        }
+
+        byte[] bytes = Files.readAllBytes(dump);
+        Files.write(dump, Arrays.copyOf(bytes, bytes.length - 6));
+        assertThrows(IOException.class, () -> readAll(dump));
+    }
+
+    @Test
+    void unfinishedDumpLeavesNoFile() throws IOException {
+        try (TableDump.Writer writer = TableDump.create(dump)) {
+            writer.write(new byte[] {1});
+        }
+
+        assertFalse(Files.exists(dump));
+        assertFalse(Files.exists(directory.resolve("table.dump.tmp")));
+    }
+
+    private List<Object> fill() {
+        List<Object> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add("row " + i);
+        }
+        source.addAll(rows);
+        return rows;
+    }
+
+    private static void readAll(Path file) throws IOException {
+        try (TableDump.Reader reader = TableDump.open(file)) {
+            while (reader.next()) {
+                reader.getRow();
+            }
+        }
+    }
+}
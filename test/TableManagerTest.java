@@ -0,0 +1,248 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TableManagerTest {
+
+    private TableManager manager;
+
+    @BeforeEach
+    void open() {
+        manager = new TableManager("records");
+        manager.clear();
+    }
+
+    @AfterEach
+    void close() {
+        manager.dispose();
+        manager.close();
+    }
+
+    @Test
+    void readsAndWritesByPosition() {
+        List<Object> expected = fill(10);
+        manager.remove(3);
+        expected.remove(3);
+        manager.set(5, "five");
+        expected.set(5, "five");
+        manager.insert(0, "head");
+        expected.add(0, "head");
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), manager.get(i));
+        }
+        assertNull(manager.get(expected.size()));
+        assertNull(manager.get(-1));
+        assertEquals(expected.subList(2, 6), manager.getRange(2, 5));
+    }
+
+    @Test
+    void cursorPagesKeepTheirPlaceAcrossRemoves() {
+        List<Object> expected = fill(25);
+        PageCursor cursor = manager.openCursor(5, 10);
+
+        List<Object> read = new ArrayList<>(manager.nextPage(cursor));
+        // A row removed before the cursor does not shift the following pages
+        manager.remove(0);
+        while (cursor.hasNext()) {
+            read.addAll(manager.nextPage(cursor));
+        }
+
+        assertEquals(expected.subList(5, 25), read);
+        assertEquals(expected.subList(1, 5), manager.getPage(0, 4));
+        assertTrue(manager.getPage(100, 4).isEmpty());
+        assertTrue(manager.nextPage(manager.openCursor(100, 4)).isEmpty());
+    }
+
+    @Test
+    void recreatedTableIsNotReadThroughOldStatements() {
+        fill(5);
+        assertTrue(manager.dispose());
+        manager.close();
+
+        manager = new TableManager("records");
+        manager.add("new");
+
+        assertEquals(1, manager.size());
+        assertEquals("new", manager.get(0));
+        assertEquals(Arrays.asList("new"), manager.getAll());
+    }
+
+    @Test
+    void catalogFollowsCreatesDropsAndOutsideChanges() throws SQLException {
+        Database database = manager.getDatabase();
+        assertTrue(database.createTable("extra"));
+        assertTrue(database.isTableExist("EXTRA"));
+        assertFalse(database.createTable("extra"));
+        assertTrue(database.deleteTable("extra"));
+        assertFalse(database.isTableExist("extra"));
+
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:DataStore");
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE OUTSIDE (nId INTEGER, data BLOB)");
+        }
+        try {
+            assertFalse(database.isTableExist("outside"));
+            database.invalidateTableCatalog();
+            assertTrue(database.isTableExist("outside"));
+        } finally {
+            database.deleteTable("outside");
+        }
+    }
+
+    @Test
+    void usersOnOnePathHaveTheirOwnTables(@TempDir Path directory) {
+        String path = directory.resolve("db").toString();
+        TableManager alice = new TableManager("records", Codecs.JAVA, path, "alice", "secret");
+        TableManager bob = new TableManager("records", Codecs.JAVA, path, "bob", "secret");
+        try {
+            assertTrue(alice.add("a1"));
+            assertTrue(bob.add("b1"));
+            assertTrue(alice.add("a2"));
+            assertTrue(bob.add("b2"));
+            assertEquals("b1", bob.remove(0));
+
+            assertEquals("a2", alice.get(1));
+            assertEquals(Arrays.asList("a1", "a2"), alice.getAll());
+            assertEquals(Arrays.asList("b2"), bob.getAll());
+
+            assertTrue(bob.dispose());
+            assertFalse(bob.getDatabase().isTableExist("records"));
+            assertTrue(alice.getDatabase().isTableExist("records"));
+        } finally {
+            alice.dispose();
+            alice.close();
+            bob.close();
+        }
+    }
+
+    @Test
+    void bulkInsertKeepsOrderAcrossBatches() {
+        manager.setBatchSize(64);
+        List<Object> expected = fill(1000);
+
+        assertEquals(1000, manager.size());
+        assertEquals(expected, manager.getAll());
+        assertFalse(manager.addAll(new ArrayList<>()));
+    }
+
+    @Test
+    void streamReadsRowsLazilyInOrder() {
+        List<Object> expected = fill(500);
+
+        try (Stream<Object> rows = manager.stream()) {
+            assertEquals(expected.subList(0, 10), rows.limit(10).collect(Collectors.toList()));
+        }
+        try (Stream<Object> rows = manager.stream()) {
+            assertEquals(expected, rows.collect(Collectors.toList()));
+        }
+        // A scan left open does not block writers
+        try (Stream<Object> rows = manager.stream()) {
+            rows.iterator().next();
+            assertTrue(manager.add("during scan"));
+        }
+        assertEquals(501, manager.size());
+    }
+
+    @Test
+    void failedScanThrowsInsteadOfEndingEarly() throws SQLException {
+        fill(3);
+        long errors = manager.getMetrics().getErrors();
+
+        try (Connection connection = DriverManager.getConnection("jdbc:derby:DataStore");
+                Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT data FROM records");
+            RowIterator rows = new RowIterator(manager.getDatabase().getPath(), "RECORDS", statement, resultSet,
+                    false, null);
+            rows.next();
+            resultSet.close();
+
+            IllegalStateException e = assertThrows(IllegalStateException.class, rows::hasNext);
+            assertTrue(e.getCause() instanceof SQLException);
+            assertFalse(rows.isComplete());
+        }
+        assertEquals(errors + 1, manager.getMetrics().getErrors());
+    }
+
+    @Test
+    void scanDoesNotInstallARowIndexOutdatedByAWrite() {
+        List<Object> expected = fill(3);
+        Database database = manager.getDatabase();
+        database.invalidateRowIdIndex("records");
+
+        try (RowIterator rows = database.iterateData("records")) {
+            rows.next();
+            rows.next();
+            assertTrue(database.deleteDataByIndex("records", 0));
+            database.invalidateRowIdIndex("records");
+            while (rows.hasNext()) {
+                rows.next();
+            }
+        }
+
+        assertEquals(2, manager.size());
+        assertEquals(expected.subList(1, 3), manager.getRange(0, 1));
+    }
+
+    @Test
+    void concurrentWritersAndReadersSeeEveryRow() throws InterruptedException {
+        int threads = 8;
+        int writes = 100;
+        Set<Object> expected = ConcurrentHashMap.newKeySet();
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < writes; i++) {
+                    String row = thread + ":" + i;
+                    expected.add(row);
+                    if (!manager.add(row) || manager.get(manager.size() - 1) == null) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(expected, new HashSet<>(manager.getAll()));
+        assertEquals(threads * writes, manager.size());
+    }
+
+    private List<Object> fill(int count) {
+        List<Object> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add("row " + i);
+        }
+        manager.addAll(rows);
+        return rows;
+    }
+}
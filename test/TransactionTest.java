@@ -0,0 +1,157 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TransactionTest {
+
+    @TempDir
+    Path directory;
+
+    private Database database;
+
+    @BeforeEach
+    void open() {
+        database = new Database(directory.resolve("db").toString());
+        database.createTable("orders");
+        database.createTable("items");
+    }
+
+    @AfterEach
+    void close() {
+        database.close();
+    }
+
+    @Test
+    void commitKeepsWritesToEveryTable() {
+        Transaction transaction = database.beginTransaction();
+        assertTrue(database.writeData("orders", new byte[] {1}));
+        assertTrue(database.writeData("items", new byte[] {2}));
+        assertTrue(transaction.commit());
+
+        assertFalse(database.isInTransaction());
+        assertEquals(1, database.getTableSize("orders"));
+        assertEquals(1, database.getTableSize("items"));
+    }
+
+    @Test
+    void rollbackUndoesWritesAndRunsActions() {
+        database.writeData("orders", new byte[] {1});
+        AtomicBoolean rolledBack = new AtomicBoolean();
+
+        try (Transaction transaction = database.beginTransaction()) {
+            transaction.onRollback(() -> rolledBack.set(true));
+            database.writeData("orders", new byte[] {2});
+            database.writeData("items", new byte[] {3});
+            database.deleteDataByTableId("orders", database.getIdByIndex("orders", 0));
+            assertEquals(1, database.getTableSize("orders"));
+        }
+
+        assertTrue(rolledBack.get());
+        assertEquals(1, database.getTableSize("orders"));
+        assertEquals(0, database.getTableSize("items"));
+    }
+
+    @Test
+    void groupCommitKeepsEveryWrite() throws InterruptedException {
+        database.setGroupCommit(true);
+        int threads = 8;
+        int writes = 50;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < writes; i++) {
+                        if (!database.writeData("orders", new byte[] {(byte) i})) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    failures.incrementAndGet();
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(threads * writes, database.getTableSize("orders"));
+        GroupCommitter committer = database.getGroupCommitter();
+        assertEquals(threads * writes, committer.getWriteCount());
+        assertTrue(committer.getCommitCount() <= committer.getWriteCount());
+    }
+
+    @Test
+    void groupCommitRollsBackABatchThatThrowsHalfway() {
+        database.setGroupCommit(true);
+        database.writeData("orders", new byte[] {1});
+
+        boolean written = database.getGroupCommitter().submit("orders", lease -> {
+            try (Statement statement = lease.getConnection().createStatement()) {
+                statement.executeUpdate("INSERT INTO orders (ord, seq) VALUES (0, 0)");
+            }
+            throw new IllegalStateException("Write failed halfway");
+        });
+
+        assertFalse(written);
+        database.invalidateRowIdIndex("orders");
+        assertEquals(1, database.getTableSize("orders"));
+    }
+
+    @Test
+    void interruptedFollowerStillWritesAndKeepsTheFlag() throws InterruptedException {
+        database.setGroupCommit(true);
+        GroupCommitter committer = database.getGroupCommitter();
+        CountDownLatch leaderRunning = new CountDownLatch(1);
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        Thread leader = new Thread(() -> committer.submit("orders", lease -> {
+            leaderRunning.countDown();
+            try {
+                releaseLeader.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }));
+        leader.start();
+        leaderRunning.await();
+
+        AtomicBoolean result = new AtomicBoolean();
+        AtomicBoolean flag = new AtomicBoolean();
+        Thread follower = new Thread(() -> {
+            result.set(committer.submit("items", lease -> true));
+            flag.set(Thread.currentThread().isInterrupted());
+        });
+        follower.start();
+        while (follower.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        follower.interrupt();
+        releaseLeader.countDown();
+        leader.join();
+        follower.join();
+
+        assertTrue(result.get());
+        assertTrue(flag.get());
+        assertEquals(2, committer.getWriteCount());
+    }
+}